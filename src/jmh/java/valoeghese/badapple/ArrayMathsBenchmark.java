@@ -0,0 +1,57 @@
+package valoeghese.badapple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clamping one channel against another. Each call clamps a fresh copy, so the copy is included in the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrayMathsBenchmark {
+	@Param({"200", "1000", "1920"})
+	public int outputWidth;
+
+	@Param({"255"})
+	public int outputHeight;
+
+	private int[] source;
+	private int[] limit;
+	private int[] dest;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1234);
+		this.source = random.ints(this.outputWidth, 0, this.outputHeight).toArray();
+		this.limit = random.ints(this.outputWidth, 0, this.outputHeight).toArray();
+		this.dest = new int[this.outputWidth];
+	}
+
+	@Benchmark
+	public int[] clampMax() {
+		System.arraycopy(this.source, 0, this.dest, 0, this.outputWidth);
+		return ArrayMaths.clampMax(this.dest, this.limit);
+	}
+
+	@Benchmark
+	public int[] clampMin() {
+		System.arraycopy(this.source, 0, this.dest, 0, this.outputWidth);
+		return ArrayMaths.clampMin(this.dest, this.limit);
+	}
+}
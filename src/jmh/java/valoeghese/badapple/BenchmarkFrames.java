@@ -0,0 +1,152 @@
+package valoeghese.badapple;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Frames for the benchmarks, either drawn synthetically or loaded from a recording.
+ */
+final class BenchmarkFrames {
+	private BenchmarkFrames() {
+	}
+
+	static final int FRAME_COUNT = 16;
+
+	/**
+	 * @param input either a resolution such as {@code 480x360} to draw synthetic frames at, or the path of a zip or folder
+	 *              of recorded frames.
+	 */
+	static BufferedImage[] images(String input) throws IOException {
+		if (input.matches("\\d+x\\d+")) {
+			int[] size = size(input);
+			return synthetic(size[0], size[1]);
+		}
+
+		return recorded(Path.of(input));
+	}
+
+	static GreyFrame[] levels(BufferedImage[] images, BadAppleOscilliscope.Threshold threshold) {
+		GreyFrame[] frames = new GreyFrame[images.length];
+
+		for (int i = 0; i < images.length; i++) {
+			frames[i] = GreyFrame.of(images[i], threshold);
+		}
+
+		return frames;
+	}
+
+	static int[] size(String resolution) {
+		String[] parts = resolution.split("x");
+		return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+	}
+
+	/**
+	 * Silhouettes with soft edges and a little noise, like a decoded JPEG of a shadow-art clip.
+	 */
+	private static BufferedImage[] synthetic(int width, int height) {
+		BufferedImage[] images = new BufferedImage[FRAME_COUNT];
+		Random random = new Random(1234);
+
+		for (int i = 0; i < FRAME_COUNT; i++) {
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+			Graphics2D graphics = image.createGraphics();
+			graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			graphics.setColor(Color.WHITE);
+			graphics.fillRect(0, 0, width, height);
+			graphics.setColor(Color.BLACK);
+
+			for (int shape = 0; shape < 6; shape++) {
+				int w = width / 8 + random.nextInt(width / 4);
+				int h = height / 6 + random.nextInt(height / 2);
+				graphics.fillOval(random.nextInt(width - w), random.nextInt(height - h), w, h);
+			}
+
+			graphics.setColor(Color.GRAY);
+			graphics.fillRect(random.nextInt(width / 2), random.nextInt(height / 2), width / 10, height / 10);
+			graphics.dispose();
+
+			for (int n = 0; n < width * height / 50; n++) {
+				int x = random.nextInt(width), y = random.nextInt(height);
+				int grey = random.nextInt(256);
+				image.setRGB(x, y, 0xFF000000 | grey * 0x010101);
+			}
+
+			images[i] = image;
+		}
+
+		return images;
+	}
+
+	private static BufferedImage[] recorded(Path source) throws IOException {
+		List<BufferedImage> images = new ArrayList<>();
+
+		// the same frames, in the same order, as a conversion of the source reads
+		if (Files.isDirectory(source)) {
+			List<String> names;
+
+			try (Stream<Path> files = Files.list(source)) {
+				names = files.filter(path -> FrameSource.isImage(path.toString()) && Files.isRegularFile(path))
+						.map(path -> path.getFileName().toString())
+						.toList();
+			}
+
+			for (String name : FrameSource.frames(names).stream().limit(FRAME_COUNT).toList()) {
+				images.add(ImageIO.read(source.resolve(name).toFile()));
+			}
+		}
+		else {
+			try (ZipFile zip = new ZipFile(source.toFile())) {
+				List<String> names = new ArrayList<>();
+
+				for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+					ZipEntry entry = entries.nextElement();
+
+					if (!entry.isDirectory() && FrameSource.isImage(entry.getName())) {
+						names.add(entry.getName());
+					}
+				}
+
+				for (String name : FrameSource.frames(names).stream().limit(FRAME_COUNT).toList()) {
+					try (InputStream stream = zip.getInputStream(zip.getEntry(name))) {
+						images.add(ImageIO.read(stream));
+					}
+				}
+			}
+		}
+
+		if (images.isEmpty()) {
+			throw new IOException("No frames found in " + source);
+		}
+
+		return images.toArray(BufferedImage[]::new);
+	}
+
+	/**
+	 * An output which only supplies a size, for calling the edge detection entry points.
+	 */
+	static final class SizeOnly extends VideoOutput {
+		SizeOnly(int width, int height) {
+			super(width, height);
+		}
+
+		@Override
+		public void writeFrame(int[]... channels) {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package valoeghese.badapple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import valoeghese.badapple.BadAppleOscilliscope.Threshold;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding JPEG frames into levels, through an RGB {@link BufferedImage} as ImageIO reads it and from the raw samples.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+	/**
+	 * A resolution to draw synthetic frames at, or the path of a zip or folder of recorded frames.
+	 */
+	@Param({"480x360", "1920x1080"})
+	public String input;
+
+	@Param({"THRESHOLD_HYSTERETIC", "THRESHOLD_WHITE"})
+	public Threshold threshold;
+
+	private byte[][] files;
+	private byte[] levels;
+	private int frame;
+
+	@Setup
+	public void setup() throws IOException {
+		BufferedImage[] images = BenchmarkFrames.images(this.input);
+		this.files = new byte[images.length][];
+
+		for (int i = 0; i < images.length; i++) {
+			ByteArrayOutputStream file = new ByteArrayOutputStream();
+			ImageIO.write(images[i], "jpeg", file);
+			this.files[i] = file.toByteArray();
+		}
+
+		this.levels = new byte[images[0].getWidth() * images[0].getHeight()];
+	}
+
+	private byte[] next() {
+		return this.files[this.frame = (this.frame + 1) % this.files.length];
+	}
+
+	@Benchmark
+	public GreyFrame imageio() throws IOException {
+		BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(this.next())));
+		return GreyFrame.of(image, this.threshold, this.levels);
+	}
+
+	@Benchmark
+	public GreyFrame samples() throws IOException {
+		return JpegLevels.extract(JpegLevels.read(this.next()), this.threshold, this.levels);
+	}
+}
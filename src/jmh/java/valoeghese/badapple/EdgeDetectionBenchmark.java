@@ -0,0 +1,96 @@
+package valoeghese.badapple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+import valoeghese.badapple.BadAppleOscilliscope.Threshold;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Edge detection for each threshold, from a decoded image and from extracted levels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EdgeDetectionBenchmark {
+	/**
+	 * A resolution to draw synthetic frames at, or the path of a zip or folder of recorded frames.
+	 */
+	@Param({"480x360", "1920x1080"})
+	public String input;
+
+	@Param({"200", "1000"})
+	public int outputWidth;
+
+	@Param({"128", "255"})
+	public int outputHeight;
+
+	@Param({"THRESHOLD_HYSTERETIC", "THRESHOLD_WHITE"})
+	public Threshold threshold;
+
+	private BufferedImage[] images;
+	private GreyFrame[] frames;
+	private VideoOutput output;
+	private EdgeResult[] results;
+	private byte[] levels;
+	private int frame;
+
+	@Setup
+	public void setup() throws IOException {
+		this.images = BenchmarkFrames.images(this.input);
+		this.frames = BenchmarkFrames.levels(this.images, this.threshold);
+		this.output = new BenchmarkFrames.SizeOnly(this.outputWidth, this.outputHeight);
+		this.results = new FrameContext(this.outputWidth, BadAppleOscilliscope.Mode.CH_4_PIXEL_INTERLACE_8).edges;
+		this.levels = new byte[this.frames[0].getWidth() * this.frames[0].getHeight()];
+	}
+
+	private int next() {
+		return this.frame = (this.frame + 1) % BenchmarkFrames.FRAME_COUNT % this.images.length;
+	}
+
+	/**
+	 * The original getRGB-per-pixel detector, as a baseline.
+	 */
+	@Benchmark
+	public EdgeResult legacyDetectEdges() {
+		return LegacyEdgeDetector.detectEdges(this.images[this.next()], this.output, this.threshold, 0, false);
+	}
+
+	/**
+	 * Level extraction followed by detection, as done for every decoded image.
+	 */
+	@Benchmark
+	public EdgeResult detectEdges() {
+		return BadAppleOscilliscope.detectEdges(GreyFrame.of(this.images[this.next()], this.threshold), this.output, this.threshold, 0, false);
+	}
+
+	@Benchmark
+	public GreyFrame extractLevels() {
+		return GreyFrame.of(this.images[this.next()], this.threshold, this.levels);
+	}
+
+	@Benchmark
+	public EdgeResult detectOneEdge() {
+		return EdgeDetector.detectAll(this.frames[this.next()], this.outputWidth, this.outputHeight, this.threshold, 1, false, this.results)[0];
+	}
+
+	@Benchmark
+	public EdgeResult[] detectFourEdges() {
+		return EdgeDetector.detectAll(this.frames[this.next()], this.outputWidth, this.outputHeight, this.threshold, 4, false, this.results);
+	}
+}
@@ -0,0 +1,68 @@
+package valoeghese.badapple;
+
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+import valoeghese.badapple.BadAppleOscilliscope.Threshold;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The original per-pixel getRGB edge detector, kept as a baseline to compare the current engine against.
+ */
+final class LegacyEdgeDetector {
+	private LegacyEdgeDetector() {
+	}
+
+	static EdgeResult detectEdges(BufferedImage in, VideoOutput out, Threshold threshold, int skip, boolean spike) {
+		final int horizontalResolution = out.getWidth();
+
+		int[] channel1 = new int[horizontalResolution];
+		int[] channel2 = new int[horizontalResolution];
+
+		for (int x = 0; x < horizontalResolution; x++) {
+			double xConversionFactor = (double) in.getWidth() / horizontalResolution;
+			double yConversionFactor = (double) out.getHeight() / in.getHeight();
+
+			int eqXIn = (int) (xConversionFactor * x);
+			int passes = skip;
+
+			int y;
+			boolean current = threshold.threshold(in.getRGB(eqXIn, in.getHeight() - 1), false, true);
+
+			for (y = in.getHeight() - 1; y >= 0; y--) {
+				if (threshold.threshold(in.getRGB(eqXIn, y), current, false) != current) {
+					current = !current;
+
+					if (passes-- == 0) {
+						break;
+					}
+				}
+			}
+
+			if (passes >= 0) y = in.getHeight() - 1;
+			channel1[x] = (int) (yConversionFactor * y);
+
+			passes = skip;
+			current = threshold.threshold(in.getRGB(eqXIn, 0), false, true);
+
+			for (y = 0; y < in.getHeight(); y++) {
+				if (threshold.threshold(in.getRGB(eqXIn, y), current, false) != current) {
+					current = !current;
+
+					if (passes-- == 0) {
+						break;
+					}
+				}
+			}
+
+			if (passes >= 0) y = in.getHeight() - 1;
+			channel2[x] = (int) (yConversionFactor * y);
+		}
+
+		if (spike) {
+			channel1[0] = -1;
+			channel2[0] = -1;
+		}
+
+		return new EdgeResult(channel1, channel2);
+	}
+}
@@ -0,0 +1,111 @@
+package valoeghese.badapple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+import valoeghese.badapple.BadAppleOscilliscope.Threshold;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing a whole frame in each channel mode, and the pixel interlacing some of the modes use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModeBenchmark {
+	/**
+	 * A resolution to draw synthetic frames at, or the path of a zip or folder of recorded frames.
+	 */
+	@Param({"480x360", "1920x1080"})
+	public String input;
+
+	@Param({"200", "1000"})
+	public int outputWidth;
+
+	@Param({"255"})
+	public int outputHeight;
+
+	@Param({"CH_2_INTERLACING", "CH_2_PIXEL_INTERLACE_8", "CH_3_NO_INTERLACE", "CH_4_NO_INTERLACE", "CH_4_PIXEL_INTERLACE_6", "CH_4_PIXEL_INTERLACE_8"})
+	public BadAppleOscilliscope.Mode mode;
+
+	private GreyFrame[] frames;
+	private VideoOutput output;
+	private FrameContext context;
+	private int frame;
+
+	// detected edges, and working copies for pixelInterlace to modify
+	private EdgeResult[][] edges;
+	private int[][] work;
+	// the height pixel interlacing is given, as processFrame works it out from the frame height
+	private int interlaceHeight;
+
+	@Setup
+	public void setup() throws IOException {
+		this.frames = BenchmarkFrames.levels(BenchmarkFrames.images(this.input), Threshold.THRESHOLD_HYSTERETIC);
+		this.output = new BenchmarkFrames.SizeOnly(this.outputWidth, this.outputHeight);
+		this.context = new FrameContext(this.outputWidth, this.mode);
+
+		this.edges = new EdgeResult[this.frames.length][];
+		this.work = new int[8][this.outputWidth];
+		int frameHeight = this.frames[0].getHeight();
+		this.interlaceHeight = (int) (((double) this.outputHeight / frameHeight) * (frameHeight - 1)) + 1;
+
+		for (int i = 0; i < this.frames.length; i++) {
+			this.edges[i] = EdgeDetector.detectAll(this.frames[i], this.outputWidth, this.outputHeight, Threshold.THRESHOLD_HYSTERETIC, 4, false);
+		}
+	}
+
+	private int next() {
+		return this.frame = (this.frame + 1) % this.frames.length;
+	}
+
+	@Benchmark
+	public int[][] processFrame() throws IOException {
+		int i = this.next();
+		return BadAppleOscilliscope.processFrame(i + 1, this.frames[i], this.output, false, this.mode, Threshold.THRESHOLD_HYSTERETIC, this.context);
+	}
+
+	/**
+	 * The pixel interlacing done by this mode on already detected edges, including copying the edges to work on.
+	 * Modes without pixel interlacing only measure the copy.
+	 */
+	@Benchmark
+	public int[][] pixelInterlace() {
+		EdgeResult[] edges = this.edges[this.next()];
+		int[][] work = this.work;
+
+		for (int n = 0; n < 4; n++) {
+			System.arraycopy(edges[n].top(), 0, work[2 * n], 0, this.outputWidth);
+			System.arraycopy(edges[n].bottom(), 0, work[2 * n + 1], 0, this.outputWidth);
+		}
+
+		int height = this.interlaceHeight;
+
+		switch (this.mode) {
+		case CH_2_PIXEL_INTERLACE_8 -> BadAppleOscilliscope.pixelInterlace(height, work[0], work[1], work[2], work[3], work[4], work[5], work[6], work[7]);
+		case CH_4_PIXEL_INTERLACE_6 -> BadAppleOscilliscope.pixelInterlace(height, work[2], work[3], work[4], work[5]);
+		case CH_4_PIXEL_INTERLACE_8 -> {
+			BadAppleOscilliscope.pixelInterlace(height, work[0], work[1], work[4], work[5]);
+			BadAppleOscilliscope.pixelInterlace(height, work[2], work[3], work[6], work[7]);
+		}
+		default -> {
+		}
+		}
+
+		return work;
+	}
+}
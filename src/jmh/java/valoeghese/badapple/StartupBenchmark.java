@@ -0,0 +1,96 @@
+package valoeghese.badapple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The wall time of a whole short conversion in a fresh JVM, which is mostly startup. Runs the jar built by
+ * {@code mvn -P app package}, with and without its class data sharing archive.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class StartupBenchmark {
+	@Param({"target/badappleosc.jar"})
+	public String jar;
+
+	@Param({"none", "archive"})
+	public String sharing;
+
+	@Param({"debug-frame", "raw"})
+	public String job;
+
+	private Path directory;
+	private List<String> command;
+
+	@Setup
+	public void setup() throws IOException {
+		Path jar = Path.of(this.jar);
+		Path archive = jar.resolveSibling(jar.getFileName().toString().replace(".jar", ".jsa"));
+
+		if (!Files.isRegularFile(jar) || this.sharing.equals("archive") && !Files.isRegularFile(archive)) {
+			throw new IllegalStateException("Build " + jar + " and its archive with mvn -P app package first");
+		}
+
+		this.directory = Files.createTempDirectory("badapple-bench");
+		this.command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+
+		if (this.sharing.equals("archive")) {
+			this.command.add("-XX:SharedArchiveFile=" + archive);
+		}
+
+		this.command.addAll(List.of("-jar", jar.toString()));
+		this.command.addAll(switch (this.job) {
+			case "debug-frame" -> List.of(StartupTraining.writeZip(this.directory).toString(), "64", "48", "2");
+			case "raw" -> List.of(StartupTraining.writeRaw(this.directory).toString(), "64", "48", "--rawb",
+					"--frame-size=" + StartupTraining.WIDTH + "x" + StartupTraining.HEIGHT);
+			default -> throw new IllegalArgumentException("Unknown job " + this.job);
+		});
+	}
+
+	@TearDown
+	public void close() throws IOException {
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Benchmark
+	public int convert() throws IOException, InterruptedException {
+		Process process = new ProcessBuilder(this.command)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		int exit = process.waitFor();
+
+		if (exit != 0) {
+			throw new IllegalStateException("Conversion exited with " + exit);
+		}
+
+		return exit;
+	}
+}
@@ -0,0 +1,70 @@
+package valoeghese.badapple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+import valoeghese.badapple.BadAppleOscilliscope.Threshold;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar against Vector API edge detection on extracted levels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class VectorEdgeDetectionBenchmark {
+	/**
+	 * A resolution to draw synthetic frames at, or the path of a zip or folder of recorded frames.
+	 */
+	@Param({"480x360", "1920x1080"})
+	public String input;
+
+	@Param({"200", "1000"})
+	public int outputWidth;
+
+	@Param({"1", "4"})
+	public int edges;
+
+	@Param({"scalar", "vector"})
+	public String engine;
+
+	private GreyFrame[] frames;
+	private EdgeResult[] results;
+	private int frame;
+
+	@Setup
+	public void setup() throws IOException {
+		if (!EdgeDetector.useVector(this.engine.equals("vector")) && this.engine.equals("vector")) {
+			throw new IllegalStateException("The Vector API is unavailable");
+		}
+
+		this.frames = BenchmarkFrames.levels(BenchmarkFrames.images(this.input), Threshold.THRESHOLD_HYSTERETIC);
+		this.results = new FrameContext(this.outputWidth, BadAppleOscilliscope.Mode.CH_4_PIXEL_INTERLACE_8).edges;
+	}
+
+	@TearDown
+	public void tearDown() {
+		EdgeDetector.useVector(false);
+	}
+
+	@Benchmark
+	public EdgeResult[] detectAll() {
+		this.frame = (this.frame + 1) % this.frames.length;
+		return EdgeDetector.detectAll(this.frames[this.frame], this.outputWidth, 255, Threshold.THRESHOLD_HYSTERETIC, this.edges, false, this.results);
+	}
+}
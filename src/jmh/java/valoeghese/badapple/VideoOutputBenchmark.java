@@ -0,0 +1,97 @@
+package valoeghese.badapple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writing frames to each output. A fresh output is opened in a temporary directory for every iteration and closing it
+ * is not timed, so asynchronous outputs are measured by how fast they accept frames.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VideoOutputBenchmark {
+	@Param({"bits8", "text", "image"})
+	public String output;
+
+	@Param({"200", "1000"})
+	public int outputWidth;
+
+	@Param({"128", "255"})
+	public int outputHeight;
+
+	@Param({"2", "4"})
+	public int channels;
+
+	private int[][][] frames;
+	private Path directory;
+	private VideoOutput videoOutput;
+	private int frame;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1234);
+		this.frames = new int[BenchmarkFrames.FRAME_COUNT][this.channels][this.outputWidth];
+
+		// smooth traces, like real edges
+		for (int[][] frame : this.frames) {
+			for (int[] channel : frame) {
+				int y = random.nextInt(this.outputHeight);
+
+				for (int x = 0; x < this.outputWidth; x++) {
+					y = Math.max(0, Math.min(this.outputHeight - 1, y + random.nextInt(9) - 4));
+					channel[x] = y;
+				}
+			}
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void open() throws IOException {
+		this.directory = Files.createTempDirectory("badapple-bench");
+		this.videoOutput = switch (this.output) {
+			case "bits8" -> new Bits8Output(this.directory.resolve("video.dat"), this.outputWidth, this.outputHeight);
+			case "text" -> new TextFileOutput(this.directory.resolve("video.txt"), this.outputWidth, this.outputHeight);
+			case "image" -> new BufferedImageOutput(this.directory, this.outputWidth, this.outputHeight, 0, 1, false);
+			default -> throw new IllegalArgumentException("Unknown output " + this.output);
+		};
+	}
+
+	@TearDown(Level.Iteration)
+	public void close() throws IOException {
+		this.videoOutput.close();
+
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Benchmark
+	public void writeFrame() throws IOException {
+		this.videoOutput.writeFrame(this.frames[this.frame = (this.frame + 1) % this.frames.length]);
+	}
+}
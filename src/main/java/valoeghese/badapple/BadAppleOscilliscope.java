@@ -1,183 +1,348 @@
 package valoeghese.badapple;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.BufferedInputStream;
+import org.jetbrains.annotations.Nullable;
+
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Locale;
+import java.util.stream.Collectors;
 
 public class BadAppleOscilliscope {
 	public static void main(String[] args) throws IOException {
-		List<String> nonFlagArgs = new ArrayList<>();
-		boolean flagRaw = false;
-		boolean flagRawBinary = false;
-		boolean flagSpike = false;
-		boolean noVert = false;
-		Mode mode = null;
-		Threshold threshold = null;
-
-		for (String s : args) {
-			if (s.startsWith("--")) {
-				switch (s) {
-				case "--raw":
-					flagRaw = true;
-					break;
-				case "--rawb":
-					flagRawBinary = true;
-					break;
-				case "--spike":
-					flagSpike = true;
-					break;
-				case "--novert":
-					noVert = true;
-					break;
-				case "--mode=2i":
-					if (mode != null) {
-						System.err.println("You cannot specify the mode twice.");
-						System.exit(1);
-					}
-					mode = Mode.CH_2_INTERLACING;
-					break;
-				case "--mode=2pi8":
-					if (mode != null) {
-						System.err.println("You cannot specify the mode twice.");
-						System.exit(1);
-					}
-					mode = Mode.CH_2_PIXEL_INTERLACE_8;
-					break;
-				case "--mode=3x":
-					if (mode != null) {
-						System.err.println("You cannot specify the mode twice.");
-						System.exit(1);
-					}
-					mode = Mode.CH_3_NO_INTERLACE;
-					break;
-				case "--mode=4x":
-					if (mode != null) {
-						System.err.println("You cannot specify the mode twice.");
-						System.exit(1);
-					}
-					mode = Mode.CH_4_NO_INTERLACE;
-					break;
-				case "--mode=4pi6":
-					if (mode != null) {
-						System.err.println("You cannot specify the mode twice.");
-						System.exit(1);
-					}
-					mode = Mode.CH_4_PIXEL_INTERLACE_6;
-					break;
-				case "--mode=4pi8":
-					if (mode != null) {
-						System.err.println("You cannot specify the mode twice.");
-						System.exit(1);
-					}
-					mode = Mode.CH_4_PIXEL_INTERLACE_8;
-					break;
-				case "--threshold=hysteretic":
-					if (threshold != null) {
-						System.err.println("You cannot specify the threshold twice.");
-						System.exit(1);
-					}
-					threshold = Threshold.THRESHOLD_HYSTERETIC;
-					break;
-				case "--threshold=white":
-					if (threshold != null) {
-						System.err.println("You cannot specify the threshold twice.");
-						System.exit(1);
-					}
-					threshold = Threshold.THRESHOLD_WHITE;
-					break;
-				default:
-					System.out.println("Unknown flag " + s);
-					return;
-				}
-			}
-			else {
-				nonFlagArgs.add(s);
-			}
+		// nothing is drawn to a screen, so never initialise a display toolkit for the image outputs
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		ConversionFlags flags;
+
+		try {
+			flags = ConversionFlags.parse(Arrays.asList(args));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		List<String> nonFlagArgs = flags.arguments;
+		// several outputs are written at once, with PNG images only by default
+		List<Integer> exportTypes = flags.exportTypes();
+
+		if ((flags.resume || flags.checkpointInterval != 0 || flags.chunks != 0) && (exportTypes.size() > 1 || !flags.raw && !flags.rawBinary)) {
+			System.out.println("--checkpoint, --resume, --chunk and --chunks only apply to a single raw output.");
+			return;
+		}
+
+		if ((flags.from != 1 || flags.to != 0 || flags.chunks != 0) && nonFlagArgs.size() == 4) {
+			System.out.println("Cannot convert a range of frames as well as a debug frame.");
+			return;
+		}
+
+		if (nonFlagArgs.size() == 4 && !nonFlagArgs.get(3).matches("0*[1-9]\\d{0,8}")) {
+			System.out.println("The debug frame must be a frame number, from 1.");
+			return;
 		}
 
-		if (mode == null) {
-			mode = Mode.CH_2_INTERLACING; // default
+		if (flags.resume && flags.checkpointInterval == 0) {
+			flags.checkpointInterval = 500; // keep checkpointing the resumed run
 		}
-		if (threshold == null) {
-			threshold = Threshold.THRESHOLD_HYSTERETIC; // default
+
+		if (!EdgeDetector.useVector(flags.vectorEdges) && flags.vectorEdges) {
+			System.err.println(" > Vector API unavailable (run java with --add-modules jdk.incubator.vector), using scalar edge detection");
 		}
 
-		if (flagRawBinary && flagRaw) {
-			System.out.println("Cannot specify both raw binary and raw (text).");
+		if (flags.batchFile != null) {
+			if (!nonFlagArgs.isEmpty()) {
+				System.out.println("A batch job takes its sources and outputs from the job file.");
+				return;
+			}
+
+			BatchConverter.run(flags.batchFile, flags.threads);
 			return;
 		}
 
-		run(nonFlagArgs.toArray(String[]::new), flagRawBinary ? 2 : (flagRaw ? 1 : 0), flagSpike, noVert, mode, threshold);
+		run(nonFlagArgs.toArray(String[]::new), exportTypes.stream().mapToInt(Integer::intValue).toArray(), flags.spike, flags.noVert, flags.mode, flags.threshold,
+				flags.threads, flags.frameWidth, flags.frameHeight, flags.cacheDirectory, flags.memo, flags.mapOutput, flags.pngLevel, flags.pngContainer,
+				flags.metricsFile, flags.metricsInterval, flags.stream(), flags.audio(), flags.text(), flags.range(), flags.sampling, flags.filter);
+	}
+
+	/**
+	 * The settings for raw (text) output from the command line.
+	 */
+	public record TextOptions(char separator, boolean header, boolean gzip) {
+	}
+
+	/**
+	 * The settings for converting part of a source from the command line.
+	 * @param from the first frame to convert, numbered from 1.
+	 * @param to the last frame to convert, or 0 to convert to the end of the source.
+	 * @param checkpointInterval the number of frames between checkpoints, or 0 to not checkpoint.
+	 * @param resume whether to carry on from the checkpoint left by an earlier run.
+	 * @param chunk the chunk of the range to convert into its own part file, numbered from 1; or 0 to convert every chunk.
+	 * @param chunks the number of chunks to split the range into, or 0 to convert it in one go.
+	 */
+	public record RangeOptions(int from, int to, int checkpointInterval, boolean resume, int chunk, int chunks) {
+		/**
+		 * @return whether every frame of the source is converted from the start.
+		 */
+		public boolean isWholeSource() {
+			return this.from == 1 && this.to == 0 && this.chunks == 0 && !this.resume;
+		}
+
+		public RangeOptions withChunk(int chunk) {
+			return new RangeOptions(this.from, this.to, this.checkpointInterval, this.resume, chunk, this.chunks);
+		}
 	}
 
-	public enum Mode {
-		CH_2_INTERLACING("2-channel interlacing"),
-		CH_2_PIXEL_INTERLACE_8("2-channel pixel-interlace (8 edges)"),
-		CH_3_NO_INTERLACE("3-channel no interlacing"),
-		CH_4_NO_INTERLACE("4-channel no interlacing"),
-		CH_4_PIXEL_INTERLACE_6("4-channel pixel-interlace (6 edges)"),
-		CH_4_PIXEL_INTERLACE_8("4-channel pixel-interlace (8 edges)");
+	public enum Mode implements ModeStrategy {
+		CH_2_INTERLACING("2i", "2-channel interlacing", 2, 2) {
+			@Override
+			public int edges(int frame) {
+				// only needs the edge for this frame's parity
+				return (frame & 1) + 1;
+			}
+
+			@Override
+			public int variant(int frame) {
+				// picks different edges on odd and even frames
+				return frame & 1;
+			}
+
+			@Override
+			public int[][] combine(int frame, int bottom, EdgeResult[] detected, FrameContext context) {
+				// write the frame
+				EdgeResult edges = detected[frame & 1];
+				return context.channels(edges.bottom, edges.top);
+			}
+		},
+		CH_2_PIXEL_INTERLACE_8("2pi8", "2-channel pixel-interlace (8 edges)", 4, 2) {
+			@Override
+			public int[][] combine(int frame, int bottom, EdgeResult[] detected, FrameContext context) {
+				EdgeResult edges = detected[0];
+				pixelInterlace(bottom + 1, edges.top, edges.bottom, detected[1].top, detected[1].bottom, detected[2].top, detected[2].bottom, detected[3].top, detected[3].bottom);
+				return context.channels(edges.bottom, edges.top);
+			}
+		},
+		CH_3_NO_INTERLACE("3x", "3-channel no interlacing", 2, 3) {
+			@Override
+			public int[][] combine(int frame, int bottom, EdgeResult[] detected, FrameContext context) {
+				EdgeResult edges = detected[0];
+				// if ch3 value is larger (lower) than bottom clamp ch3 to bottom!
+				return context.channels(edges.bottom, edges.top, ArrayMaths.clampMax(detected[1].top, edges.bottom));
+			}
+		},
+		CH_4_NO_INTERLACE("4x", "4-channel no interlacing", 2, 4) {
+			@Override
+			public int[][] combine(int frame, int bottom, EdgeResult[] detected, FrameContext context) {
+				EdgeResult edges = detected[0];
+				// if ch4 value is smaller (higher) than top clamp ch4 to top!
+				return context.channels(edges.bottom, edges.top, ArrayMaths.clampMax(detected[1].top, edges.bottom), ArrayMaths.clampMin(detected[1].bottom, edges.top));
+			}
+		},
+		CH_4_PIXEL_INTERLACE_6("4pi6", "4-channel pixel-interlace (6 edges)", 3, 4) {
+			@Override
+			public int[][] combine(int frame, int bottom, EdgeResult[] detected, FrameContext context) {
+				EdgeResult edges = detected[0];
+				EdgeResult secondEdges = detected[1];
+
+				ArrayMaths.clampMax(secondEdges.top, edges.bottom);
+				ArrayMaths.clampMin(secondEdges.bottom, edges.top);
+
+				pixelInterlace(bottom + 1, secondEdges.top, secondEdges.bottom, detected[2].top, detected[2].bottom);
+				return context.channels(edges.bottom, edges.top, secondEdges.top, secondEdges.bottom);
+			}
+		},
+		CH_4_PIXEL_INTERLACE_8("4pi8", "4-channel pixel-interlace (8 edges)", 4, 4) {
+			@Override
+			public int[][] combine(int frame, int bottom, EdgeResult[] detected, FrameContext context) {
+				EdgeResult edges = detected[0];
+				EdgeResult secondEdges = detected[1];
+
+				ArrayMaths.clampMax(secondEdges.top, edges.bottom);
+				ArrayMaths.clampMin(secondEdges.bottom, edges.top);
 
-		Mode(String name) {
+				pixelInterlace(bottom + 1, edges.top, edges.bottom, detected[2].top, detected[2].bottom);
+				pixelInterlace(bottom + 1, secondEdges.top, secondEdges.bottom, detected[3].top, detected[3].bottom);
+				return context.channels(edges.bottom, edges.top, secondEdges.top, secondEdges.bottom);
+			}
+		};
+
+		Mode(String id, String name, int edges, int channels) {
+			this.id = id;
 			this.name = name;
+			this.edges = edges;
+			this.channels = channels;
 		}
+		private final String id;
 		private final String name;
+		/**
+		 * The number of edges this mode reads from each side of a column.
+		 */
+		final int edges;
+		/**
+		 * The number of channels this mode writes.
+		 */
+		final int channels;
+
+		@Override
+		public String id() {
+			return this.id;
+		}
+
+		@Override
+		public int edges() {
+			return this.edges;
+		}
+
+		@Override
+		public int channels() {
+			return this.channels;
+		}
 
 		@Override
 		public String toString() {
 			return this.name;
 		}
 	}
-	public enum Threshold {
+	public enum Threshold implements ThresholdStrategy {
 		// new thresholding
-		THRESHOLD_HYSTERETIC {
+		// greyscale image: just take the blue
+		// first colour: > 127. last white: need low brightness (<= 10) to switch to black. last black: need high brightness (> 250) to switch
+		THRESHOLD_HYSTERETIC("hysteretic", 127, 10, 250) {
 			@Override
-			boolean threshold(int rgba, boolean current, boolean first) {
-				// greyscale image: just take the blue
-				int grey = (rgba >> 8) & 0xFF;
-				if (first) return grey > 127; // first colour
-				if (current) return grey > 10;// last white: need low brightness to switch to black
-				return grey > 250;//last black: need high brightness to switch
+			public int level(int rgba) {
+				return (rgba >> 8) & 0xFF;
 			}
 		},
 		// old thresholding
-		THRESHOLD_WHITE {
+		// only pure opaque white (rgba == -1) counts as white
+		THRESHOLD_WHITE("white", 254, 254, 254) {
 			@Override
-			boolean threshold(int rgba, boolean current, boolean first) {
-				return rgba == -1;
+			public int level(int rgba) {
+				return rgba & (rgba >> 8) & (rgba >> 16) & (rgba >>> 24) & 0xFF;
 			}
 		};
 
+		Threshold(String id, int firstCutoff, int whiteCutoff, int blackCutoff) {
+			this.id = id;
+			this.firstCutoff = firstCutoff;
+			this.whiteCutoff = whiteCutoff;
+			this.blackCutoff = blackCutoff;
+			this.cutoffs = new Cutoffs(firstCutoff, whiteCutoff, blackCutoff);
+		}
+
+		private final String id;
+		/**
+		 * A level above this cutoff is white for the first pixel scanned.
+		 */
+		final int firstCutoff;
+		/**
+		 * A level above this cutoff stays white after a white pixel.
+		 */
+		final int whiteCutoff;
+		/**
+		 * A level above this cutoff switches to white after a black pixel.
+		 */
+		final int blackCutoff;
+		private final Cutoffs cutoffs;
+
+		@Override
+		public String id() {
+			return this.id;
+		}
+
+		/**
+		 * The same cutoffs for every frame.
+		 */
+		@Override
+		public Cutoffs cutoffs(GreyFrame frame) {
+			return this.cutoffs;
+		}
+
 		/**
 		 * Return true for white, false for black
 		 */
-		abstract boolean threshold(int rgba, boolean current, boolean first);
+		boolean threshold(int rgba, boolean current, boolean first) {
+			return this.level(rgba) > (first ? this.firstCutoff : current ? this.whiteCutoff : this.blackCutoff);
+		}
 	}
 
-	public static void run(String[] args, int exportType, boolean spike, boolean noVert, Mode channelMode,
-						   Threshold threshold) throws IOException {
+	/**
+	 * @param exportTypes the outputs to write: 0 for PNG images, 1 for raw text, 2 for raw binary, 3 to stream, 4 for audio
+	 *                    and 5 for delta encoded binary. With more than one, the frames are written to all of them at once.
+	 */
+	public static void run(String[] args, int[] exportTypes, boolean spike, boolean noVert, ModeStrategy channelMode,
+						   ThresholdStrategy threshold, int threads, int frameWidth, int frameHeight,
+						   @Nullable Path cacheDirectory, boolean memo, boolean mapOutput,
+						   int pngLevel, boolean pngContainer, @Nullable Path metricsFile, int metricsInterval,
+						   StreamOutput.@Nullable Options stream, PcmOutput.@Nullable Options audio,
+						   TextOptions text, RangeOptions range, EdgeDetector.Sampling sampling, TraceFilter.Options filter) throws IOException {
 		if (args.length != 3 && args.length != 4) {
-			System.out.println("Usage: badappleosc <file> <output resolution x> <output resolution y> [debug frame] [--raw/--rawb] [--mode=...] [--threshold=...] [--spike] [--novert]");
+			System.out.println("Usage: badappleosc <zip/folder/raw file> <output resolution x> <output resolution y> [debug frame] [--raw [--csv] [--text-header] [--gzip]] [--rawb] [--delta] [--png] [--mode=...] [--threshold=...] [--spike] [--novert] [--threads=N] [--frame-size=WxH] [--cache=<dir>] [--no-memo] [--mmap] [--png-level=0-9] [--png-zip] [--metrics=<file>] [--metrics-interval=S] [--stream=<target>] [--wav[=bits]/--pcm[=bits]] [--from=N] [--to=N] [--checkpoint[=N]] [--resume] [--chunk=K/N/--chunks=N] [--edges=vector/scalar] [--sampling=nearest/area] [--smooth=[mean:|median:]N] [--route]");
+			System.out.println("   or:  badappleosc --batch=<job file> [--threads=N] [--edges=vector/scalar]");
 			System.out.println("   Modes: (--mode=2i [DEFAULT] 2 channel, interlacing) (--mode=2pi8 2 channel, pixel interlace, 8 edges) (--mode=3x 3 channel, no interlacing) (--mode=4x 4 channel, no interlacing)");
 			System.out.println("          (--mode=4pi6 4 channel, pixel interlace, 6 edges) (--mode=4pi8 4 channel, pixel interlace, 8 edges)");
 			System.out.println("   Thresholds: (--threshold=hysteretic [DEFAULT] large hysteresis) (--threshold=white split image into white and not white)");
+			System.out.println("               (--threshold=otsu choose each frame's cutoff from its histogram, with hysteresis around it)");
+			System.out.println("   Plugins: further modes and thresholds are loaded from ModeStrategy and ThresholdStrategy services on the class path");
+			System.out.println("   Threads: (--threads=N number of worker threads for decoding and edge detection, defaults to the number of processors)");
+			System.out.println("   Sources: a .zip or folder of images in natural filename order, or a file of raw 8-bit greyscale frames (--frame-size=WxH required)");
+			System.out.println("   Cache: (--cache=<dir> store decoded frames in <dir> so later runs on the same source skip decoding)");
+			System.out.println("   Memo: (--no-memo always run edge detection, even on frames identical to a recent one)");
+			System.out.println("   Output: (--mmap memory-map the --rawb output file when the number of frames is known up front)");
+			System.out.println("           (--png-level=N deflate level for video frames, 0 = uncompressed) (--png-zip store video frames in out/frames.zip)");
+			System.out.println("   Streaming: (--stream=<target> play samples in real time to - (stdout), unix:<socket path>, or a file or named pipe)");
+			System.out.println("              (--frame-rate=F default 30) (--sample-rate=N per channel, default one sweep per frame) (--look-ahead=N frames buffered before playback, default 8)");
+			System.out.println("   Text: (--csv separate channels with commas in out/video.csv) (--text-header name the channels on the first line) (--gzip compress as it is written)");
+			System.out.println("   Outputs: any of --raw, --rawb, --delta, --wav/--pcm, --stream and --png (the default with none of the others) are written together,");
+			System.out.println("            each on its own thread, with the slowest at most 16 frames behind the fastest");
+			System.out.println("   Delta: (--delta write out/video.bdf, storing only the changes between frames with an index for seeking)");
+			System.out.println("   Audio: (--wav[=8|16|24] write out/video.wav with one audio channel per scope channel, default 16-bit) (--pcm[=bits] the same as raw samples in out/video.pcm)");
+			System.out.println("          each column is one sample at the output width times --frame-rate, resampled to --sample-rate if given");
+			System.out.println("   Range: (--from=N first frame to convert, from 1) (--to=N last frame to convert, default the end of the source)");
+			System.out.println("   Resuming: (--checkpoint[=N] record progress next to the --raw/--rawb output every N frames, default 500)");
+			System.out.println("             (--resume carry on from the checkpoint of an earlier run, appending to its output)");
+			System.out.println("   Chunks: (--chunk=K/N convert only chunk K of N into a part file, e.g. on another machine)");
+			System.out.println("           (--chunks=N convert any of the N chunks without a part file yet, then join the parts in order)");
+			System.out.println("   Edges: (--edges=vector scan many columns at once with the Vector API, which needs java --add-modules jdk.incubator.vector)");
+			System.out.println("          (--edges=scalar [DEFAULT] scan one column at a time)");
+			System.out.println("   Sampling: (--sampling=nearest [DEFAULT] each output column reads one input column, edges land on input rows)");
+			System.out.println("             (--sampling=area average all input columns under each output column and place edges between rows, for steadier traces)");
+			System.out.println("   Filtering: (--smooth=N or --smooth=mean:N average each sample over the last N frames) (--smooth=median:N take the median instead, which keeps cuts sharp)");
+			System.out.println("              (--route sort the points of each column across the channels, so each trace moves as little as possible between columns)");
+			System.out.println("   Batch: (--batch=<job file> decode each source listed in the job file once, converting it to every target listed after it)");
+			System.out.println("          a job file has lines 'source <zip/folder/raw file> [--frame-size=WxH] [--from=N] [--to=N]',");
+			System.out.println("          each followed by target lines '<output> <resolution x> <resolution y> [flags as above]'");
+			System.out.println("   Metrics: (--metrics=<file> write per-stage timings to <file> at the end, as CSV if it ends in .csv, otherwise JSON)");
+			System.out.println("            (--metrics-interval=S print a progress summary every S seconds, default 10, 0 to disable)");
 			return;
 		}
 
-		System.out.println("%% BadAppleOscilloscope %%");
-		System.out.println(" > Export Type: " + (exportType == 0 ? "Video" : exportType == 1 ? "Raw (text)" : "Raw (binary)"));
-		System.out.println(" > Channels: " + channelMode);
-		System.out.println(" > Threshold: " + threshold.name());
-		if (spike) System.out.println(" > Spike Enabled");
+		if (args.length == 4 && Integer.parseInt(args[3]) < 1) {
+			throw new IllegalArgumentException("Frames are numbered from 1, not " + args[3]);
+		}
+
+		// when standard output carries the samples, messages go to standard error
+		PrintStream status = stream != null && stream.toStandardOutput() ? System.err : System.out;
+
+		status.println("%% BadAppleOscilloscope %%");
+		status.println(" > Export Type: " + Arrays.stream(exportTypes).mapToObj(BadAppleOscilliscope::exportName).collect(Collectors.joining(", ")));
+		status.println(" > Channels: " + channelMode);
+		status.println(" > Threshold: " + threshold);
+		if (spike) status.println(" > Spike Enabled");
+		if (sampling == EdgeDetector.Sampling.AREA) status.println(" > Area Sampling Enabled");
+		if (filter.smoothing() != TraceFilter.Smoothing.NONE) status.println(" > Smoothing: " + filter.smoothing().toString().toLowerCase(Locale.ROOT) + " of " + filter.frames() + " frames");
+		if (filter.route()) status.println(" > Trace Routing Enabled");
+		if (EdgeDetector.vectorLanes() > 1 && sampling == EdgeDetector.Sampling.NEAREST) status.println(" > Edge Detection: Vector API, " + EdgeDetector.vectorLanes() + " columns at a time");
 
 		Path outputFolder = Path.of(args[0]).toAbsolutePath().getParent().resolve("out");
 		try {
@@ -188,123 +353,380 @@ public class BadAppleOscilliscope {
 		int resolutionX = Integer.parseInt(args[1]);
 		int resolutionY = Integer.parseInt(args[2]);
 
-		VideoOutput videoOutput = switch (exportType) {
-			case 2 -> new Bits8Output(outputFolder.resolve("video.dat"), resolutionX, resolutionY);
-			case 1 -> new TextFileOutput(outputFolder.resolve("video.txt"), resolutionX, resolutionY);
-			default -> new BufferedImageOutput(outputFolder, resolutionX, resolutionY, spike ? 1 : 0, 1, noVert);
-		};
+		Path sourcePath = Path.of(args[0]);
+		Path binaryFile = outputFolder.resolve("video.dat");
+		Path textFile = outputFolder.resolve((text.separator() == ',' ? "video.csv" : "video.txt") + (text.gzip() ? ".gz" : ""));
+		// checkpoints and chunks only apply to a single raw output, so this is the only export type when they are used
+		int exportType = exportTypes[0];
+		// the file raw output goes to, which can be checkpointed and split into chunks
+		Path rawFile = exportType == 2 ? binaryFile : exportType == 1 ? textFile : null;
+
+		if (range.chunks() > 0 && range.chunk() == 0) {
+			convertChunks(rawFile, range.chunks(), chunk -> run(args, exportTypes, spike, noVert, channelMode, threshold, threads, frameWidth, frameHeight,
+					cacheDirectory, memo, mapOutput, pngLevel, pngContainer, metricsFile, metricsInterval, stream, audio, text, range.withChunk(chunk), sampling, filter));
+			return;
+		}
+
+		// a chunk is written to a temporary file, which only takes the name of the part once complete
+		Path outputFile = range.chunk() == 0 ? rawFile : partFile(rawFile, range.chunk(), range.chunks());
+		Path writeFile = range.chunk() == 0 ? rawFile : outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+		int from = range.from();
+		int to = range.to();
+		// whether to convert until the end of the source, rather than up to frame 'to'
+		boolean toEnd = to == 0;
+		FrameSource cached = cacheDirectory == null ? null : FrameCache.open(cacheDirectory, sourcePath, frameWidth, frameHeight, threshold);
+
+		try (FrameSource src = cached != null ? cached : FrameSource.open(sourcePath, frameWidth, frameHeight)) {
+			long size = src.size();
+
+			if (range.chunk() > 0) {
+				if (size < 0) {
+					throw new IOException("Cannot split a source of unknown length into chunks");
+				}
+
+				// split the frames in range as evenly as possible
+				long first = from;
+				long count = Math.max(0, (to == 0 ? size : Math.min(to, size)) - first + 1);
+				from = (int) (first + count * (range.chunk() - 1) / range.chunks());
+				to = (int) (first + count * range.chunk() / range.chunks() - 1);
+				// a chunk may be empty, when there are fewer frames than chunks, and must not run to the end instead
+				toEnd = false;
+				status.println(" > Chunk " + range.chunk() + " of " + range.chunks() + ": frames " + from + " to " + to + " into " + outputFile.getFileName());
+			}
+
+			Checkpoint checkpoint = null;
+			long resumeOffset = 0;
+
+			if (range.checkpointInterval() > 0) {
+				Path checkpointFile = Checkpoint.fileFor(writeFile);
+				String fingerprint = fingerprint(sourcePath, resolutionX, resolutionY, exportType, spike, channelMode, threshold, sampling, filter, text, from, to);
+				Checkpoint.State state = range.resume() ? Checkpoint.read(checkpointFile, fingerprint) : null;
+
+				if (state != null) {
+					status.println(" > Resuming after frame " + state.frame() + " from " + checkpointFile);
+					from = (int) state.frame() + 1;
+					resumeOffset = state.offset();
+				}
+				else if (range.resume()) {
+					status.println(" > No checkpoint at " + checkpointFile + ", starting from frame " + from);
+				}
+
+				// the pipeline also counts the frames which only warm up the filter
+				checkpoint = new Checkpoint(checkpointFile, fingerprint, range.checkpointInterval(), from - TraceFilter.warmUp(channelMode, filter, from));
+			}
+
+			// the mapped binary output needs to know how many frames will be written
+			long last = toEnd ? size : size < 0 ? to : Math.min(to, size);
+			long outputFrames = !mapOutput ? -1 : args.length == 4 ? 1 : last < 0 ? -1 : Math.max(0, last - from + 1);
+
+			if (mapOutput && checkpoint != null) {
+				status.println(" > Checkpointing, not memory-mapping the output");
+				outputFrames = -1;
+			}
+			else if (mapOutput && outputFrames < 0) {
+				status.println(" > Source length unknown, not memory-mapping the output");
+			}
+
+			// only the first chunk of text starts with the header
+			boolean textHeader = text.header() && range.chunk() <= 1;
+
+			List<VideoOutput> outputs = new ArrayList<>();
+
+			try {
+				for (int type : exportTypes) {
+					outputs.add(switch (type) {
+						case 5 -> new DeltaOutput(outputFolder.resolve("video.bdf"), resolutionX, resolutionY);
+						case 4 -> new PcmOutput(outputFolder.resolve(audio.header() ? "video.wav" : "video.pcm"), resolutionX, resolutionY, audio.bits(), audio.header(),
+								(int) Math.round(resolutionX * audio.frameRate()), audio.sampleRate());
+						case 3 -> new StreamOutput(StreamOutput.open(stream.target()), resolutionX, resolutionY, stream.sampleRate(), stream.frameRate(), stream.lookAhead());
+						case 2 -> new Bits8Output(type == exportType ? writeFile : binaryFile, resolutionX, resolutionY, outputFrames, resumeOffset);
+						case 1 -> new TextFileOutput(type == exportType ? writeFile : textFile, resolutionX, resolutionY, text.separator(), textHeader, text.gzip(), resumeOffset);
+						default -> new BufferedImageOutput(outputFolder, resolutionX, resolutionY, spike ? 1 : 0, from, noVert, threads, pngLevel, pngContainer);
+					});
+				}
+			} catch (IOException | RuntimeException e) {
+				for (VideoOutput output : outputs) {
+					try {
+						output.close();
+					} catch (IOException suppressed) {
+						e.addSuppressed(suppressed);
+					}
+				}
+
+				throw e;
+			}
+
+			VideoOutput videoOutput = outputs.size() == 1 ? outputs.get(0)
+					: new TeeOutput(outputs, Arrays.stream(exportTypes).mapToObj(BadAppleOscilliscope::exportName).toList(), 16);
+
+			// only a full run goes through the pipeline and is measured
+			Metrics metrics = args.length == 4 ? null : new Metrics(threads);
+			long time = 0;
 
-		try (ZipFile src = new ZipFile(args[0])) {
 			if (args.length == 4) {
-				processFrame(Integer.parseInt(args[3]), src, videoOutput, spike, channelMode, threshold);
+				int i = Integer.parseInt(args[3]);
+				int warmUp = TraceFilter.warmUp(channelMode, filter, i);
+				TraceFilter traceFilter = filter.isEnabled() ? new TraceFilter(channelMode, resolutionX, filter, i - warmUp, i) : null;
+				FrameContext context = new FrameContext(resolutionX, channelMode, sampling, null);
+				// frames are numbered from 1
+				src.skip(i - 1 - warmUp);
+
+				for (int n = i - warmUp; n <= i; n++) {
+					SourceFrame frame = src.next();
+
+					if (frame == null) {
+						break;
+					}
+
+					int[][] channels = processFrame(n, context.decode(frame, threshold), videoOutput, spike, channelMode, threshold, context);
+
+					if (traceFilter != null) {
+						channels = traceFilter.apply(channels);
+					}
+
+					if (channels != null) {
+						videoOutput.writeFrame(channels);
+					}
+				}
 			}
 			else {
-				int i = 1;
-				long time = System.currentTimeMillis();
+				status.println(" > Threads: " + threads);
+
+				// frames before the first one written, which only fill the filter's history
+				int warmUp = TraceFilter.warmUp(channelMode, filter, from);
+
+				if (from - warmUp > 1) {
+					// frames keep their numbers from the whole source, so interlacing alternates the same way
+					src.skip(from - warmUp - 1);
+				}
+
+				time = System.nanoTime();
+				int i = from - warmUp;
+				// results are shared between frames identical up to the threshold; recent frames are enough for held stills
+				FrameMemo frameMemo = memo ? new FrameMemo(resolutionX, threshold, 16, sampling) : null;
+				if (metricsInterval > 0) {
+					metrics.startReporting(metricsInterval, status);
+				}
+
+				// keep a few frames per worker in flight so the writer never starves
+				// the cache only holds whole sources
+				try (FrameCache cache = cacheDirectory == null || cached != null || !range.isWholeSource() ? null : FrameCache.create(cacheDirectory, sourcePath, frameWidth, frameHeight, threshold);
+					 FramePipeline<FrameContext> pipeline = new FramePipeline<>(videoOutput, threads, threads * 4, () -> new FrameContext(resolutionX, channelMode, sampling, metrics), metrics)) {
+					if (cached != null) {
+						status.println(" > Reading cached frames from " + FrameCache.cacheFile(cacheDirectory, sourcePath, frameWidth, frameHeight, threshold));
+					}
+
+					if (checkpoint != null) {
+						pipeline.checkpoint(checkpoint);
+					}
+
+					if (filter.isEnabled()) {
+						pipeline.filter(new TraceFilter(channelMode, resolutionX, filter, i, from));
+					}
+
+					while (toEnd || i <= to) {
+						long readStart = System.nanoTime();
+						final SourceFrame source = src.next();
+
+						if (source == null) {
+							break;
+						}
+
+						metrics.record(Metrics.Stage.READ, System.nanoTime() - readStart);
+						final int frameNumber = i++;
+
+						pipeline.submit(context -> {
+							long start = System.nanoTime();
+							GreyFrame decoded = context.decode(source, threshold);
+							metrics.record(Metrics.Stage.DECODE, System.nanoTime() - start);
 
-				while (processFrame(i, src, videoOutput, spike, channelMode, threshold)) {
-					if (i % 100 == 0) {
-						System.out.println("Completed " + i + " frames");
+							if (cache != null) {
+								start = System.nanoTime();
+								cache.put(frameNumber - 1, decoded);
+								metrics.record(Metrics.Stage.CACHE, System.nanoTime() - start);
+							}
+
+							return processFrame(frameNumber, decoded, videoOutput, spike, channelMode, threshold, context, frameMemo);
+						});
+					}
+
+					pipeline.finish();
+					time = System.nanoTime() - time;
+					metrics.stopReporting();
+					metrics.setGc(pipeline.getGcCount(), pipeline.getGcMillis(), pipeline.getAllocatedBytes());
+
+					if (frameMemo != null) {
+						status.printf(" > Memo: %d of %d frames reused (%.1f%% hit rate)%n", frameMemo.getHits(), frameMemo.getLookups(),
+								frameMemo.getLookups() == 0 ? 0.0 : 100.0 * frameMemo.getHits() / frameMemo.getLookups());
 					}
 
-					i++;
+					if (cache != null) {
+						cache.commit(i - 1);
+						status.println(" > Cached frames to " + cache.getFile());
+					}
 				}
+			}
+
+			videoOutput.close();
+			videoOutput.printSummary(status);
 
-				time = System.currentTimeMillis() - time;
-				System.out.println("Processed " + i + " frames in " + time + " ms.");
+			if (checkpoint != null) {
+				// the output is complete, so there is nothing to resume
+				checkpoint.delete();
+			}
+
+			if (range.chunk() > 0) {
+				Files.move(writeFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			if (metrics != null) {
+				// only final once the output has finished writing
+				metrics.setBytesWritten(videoOutput.getBytesWritten());
+				metrics.printSummary(time, status);
+
+				if (metricsFile != null) {
+					metrics.dump(metricsFile, time);
+					status.println(" > Wrote metrics to " + metricsFile);
+				}
 			}
 		}
+	}
 
-		videoOutput.close();
+	private static String exportName(int exportType) {
+		return exportType == 0 ? "Video" : exportType == 1 ? "Raw (text)" : exportType == 2 ? "Raw (binary)" : exportType == 3 ? "Stream" : exportType == 4 ? "Audio" : "Delta (binary)";
 	}
 
-	private static boolean processFrame(int i, ZipFile src, VideoOutput output, boolean spike, Mode channelMode,
-										Threshold threshold) throws IOException {
-		String id = leftPad(i, 4);
-		ZipEntry entry = src.getEntry("frames/output_" + id + ".jpg");
+	/**
+	 * Convert each chunk which does not have a part file yet, then join the parts into the output in order.
+	 */
+	private static void convertChunks(Path output, int chunks, ChunkConverter converter) throws IOException {
+		for (int chunk = 1; chunk <= chunks; chunk++) {
+			Path part = partFile(output, chunk, chunks);
 
-		if (entry == null) {
-			return false;
+			if (Files.exists(part)) {
+				System.out.println(" > Chunk " + chunk + " of " + chunks + " already converted in " + part.getFileName());
+			}
+			else {
+				converter.convert(chunk);
+			}
 		}
 
-		BufferedImage frame;
+		try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int chunk = 1; chunk <= chunks; chunk++) {
+				try (FileChannel in = FileChannel.open(partFile(output, chunk, chunks), StandardOpenOption.READ)) {
+					long size = in.size();
+
+					for (long position = 0; position < size; ) {
+						position += in.transferTo(position, size - position, out);
+					}
+				}
+			}
+
+			out.force(false);
+		}
 
-		try (InputStream stream = new BufferedInputStream(src.getInputStream(entry))) {
-			frame = ImageIO.read(stream);
+		for (int chunk = 1; chunk <= chunks; chunk++) {
+			Files.delete(partFile(output, chunk, chunks));
 		}
 
+		System.out.println(" > Joined " + chunks + " chunks into " + output);
+	}
+
+	@FunctionalInterface
+	private interface ChunkConverter {
+		void convert(int chunk) throws IOException;
+	}
+
+	private static Path partFile(Path output, int chunk, int chunks) {
+		return output.resolveSibling(output.getFileName() + ".part" + chunk + "-of-" + chunks);
+	}
+
+	/**
+	 * Describe everything which affects the output of a conversion, so that a checkpoint is only resumed by the same one.
+	 */
+	private static String fingerprint(Path source, int resolutionX, int resolutionY, int exportType, boolean spike, ModeStrategy channelMode,
+									  ThresholdStrategy threshold, EdgeDetector.Sampling sampling, TraceFilter.Options filter, TextOptions text, int from, int to) throws IOException {
+		Path file = source.toAbsolutePath();
+		return file + ";" + (Files.isRegularFile(file) ? Files.size(file) : -1) + ";" + Files.getLastModifiedTime(file).toMillis()
+				+ ";" + resolutionX + "x" + resolutionY + ";" + exportType + ";" + channelMode.id() + ";" + threshold.id() + ";" + sampling + ";" + filter + ";" + spike
+				+ ";" + (exportType == 1 ? (int) text.separator() + "," + text.header() + "," + text.gzip() : "") + ";" + from + "-" + to;
+	}
+
+	/**
+	 * Compute the channels to write for a frame. Safe to call from multiple threads at once.
+	 * @param i the frame number, whose parity determines which edges are used by {@link Mode#CH_2_INTERLACING}.
+	 * @return the channels to pass to {@link VideoOutput#writeFrame}.
+	 */
+	static int[][] processFrame(int i, GreyFrame frame, VideoOutput output, boolean spike, ModeStrategy channelMode,
+										ThresholdStrategy threshold) throws IOException {
+		return processFrame(i, frame, output, spike, channelMode, threshold, new FrameContext(output.getWidth(), channelMode));
+	}
+
+	/**
+	 * Compute the channels to write for a frame using the buffers of the given context.
+	 * @return the channels to pass to {@link VideoOutput#writeFrame}, which point into the context.
+	 */
+	static int[][] processFrame(int i, GreyFrame frame, VideoOutput output, boolean spike, ModeStrategy channelMode,
+										ThresholdStrategy threshold, FrameContext context) throws IOException {
+		return processFrame(i, frame, null, output, spike, channelMode, threshold, context);
+	}
+
+	/**
+	 * @param sampled the frame's levels as already sampled for nearest sampling by {@link EdgeDetector#sample}, or null.
+	 */
+	private static int[][] processFrame(int i, GreyFrame frame, byte @Nullable [] sampled, VideoOutput output, boolean spike, ModeStrategy channelMode,
+										ThresholdStrategy threshold, FrameContext context) throws IOException {
 		// in smaller outputs this is the same as output.getHeight() - 1
 		int bottom = (int)(((double)output.getHeight()/frame.getHeight()) * (frame.getHeight() - 1));
 
-		EdgeResult edges, secondEdges;
-
-		switch (channelMode) {
-		case CH_2_INTERLACING:
-			// write the frame
-			edges = detectEdges(frame, output, threshold, i & 1, spike);
-			output.writeFrame(edges.bottom, edges.top);
-			break;
-		case CH_2_PIXEL_INTERLACE_8:
-			edges = detectEdges(frame, output, threshold, 0, spike);
-			secondEdges = detectEdges(frame, output, threshold, 1, spike);
-		{
-			EdgeResult thirdEdges = detectEdges(frame, output, threshold, 2, spike);
-			EdgeResult fourthEdges = detectEdges(frame, output, threshold, 3, spike);
-
-			pixelInterlace(bottom + 1, edges.top, edges.bottom, secondEdges.top, secondEdges.bottom, thirdEdges.top, thirdEdges.bottom, fourthEdges.top, fourthEdges.bottom);
-			output.writeFrame(edges.bottom, edges.top);
-		}
-			break;
-		case CH_3_NO_INTERLACE:
-			// write the frame
-			edges = detectEdges(frame, output, threshold, 0, spike);
-			secondEdges = detectEdges(frame, output, threshold, 1, spike);
-
-			// if ch3 value is larger (lower) than bottom clamp ch3 to bottom!
-			output.writeFrame(edges.bottom, edges.top, ArrayMaths.clampMax(secondEdges.top, edges.bottom));
-			break;
-		case CH_4_NO_INTERLACE:
-			// write the frame
-			edges = detectEdges(frame, output, threshold, 0, spike);
-			secondEdges = detectEdges(frame, output, threshold, 1, spike);
-
-			// if ch4 value is smaller (higher) than top clamp ch4 to top!
-			output.writeFrame(edges.bottom, edges.top, ArrayMaths.clampMax(secondEdges.top, edges.bottom), ArrayMaths.clampMin(secondEdges.bottom, edges.top));
-			break;
-		case CH_4_PIXEL_INTERLACE_6:
-			edges = detectEdges(frame, output, threshold, 0, spike);
-			secondEdges = detectEdges(frame, output, threshold, 1, spike);
-		{
-			EdgeResult thirdEdges = detectEdges(frame, output, threshold, 2, spike);
-
-			ArrayMaths.clampMax(secondEdges.top, edges.bottom);
-			ArrayMaths.clampMin(secondEdges.bottom, edges.top);
-
-			pixelInterlace(bottom + 1, secondEdges.top, secondEdges.bottom, thirdEdges.top, thirdEdges.bottom);
-			output.writeFrame(edges.bottom, edges.top, secondEdges.top, secondEdges.bottom);
-		}
-			break;
-		case CH_4_PIXEL_INTERLACE_8:
-			edges = detectEdges(frame, output, threshold, 0, spike);
-			secondEdges = detectEdges(frame, output, threshold, 1, spike);
-		{
-			EdgeResult thirdEdges = detectEdges(frame, output, threshold, 2, spike);
-			EdgeResult fourthEdges = detectEdges(frame, output, threshold, 3, spike);
-
-			ArrayMaths.clampMax(secondEdges.top, edges.bottom);
-			ArrayMaths.clampMin(secondEdges.bottom, edges.top);
-
-			pixelInterlace(bottom + 1, edges.top, edges.bottom, thirdEdges.top, thirdEdges.bottom);
-			pixelInterlace(bottom + 1, secondEdges.top, secondEdges.bottom, fourthEdges.top, fourthEdges.bottom);
-			output.writeFrame(edges.bottom, edges.top, secondEdges.top, secondEdges.bottom);
-		}
-			break;
-		}
-
-		return true;
+		int edgeCount = channelMode.edges(i);
+		long start = System.nanoTime();
+		EdgeResult[] detected = sampled != null
+				? EdgeDetector.detectNearest(frame, sampled, output.getWidth(), output.getHeight(), threshold, edgeCount, spike, context.edges)
+				: EdgeDetector.detectAll(frame, output.getWidth(), output.getHeight(), threshold, edgeCount, spike, context.edges, context.sampling);
+		long detectedAt = System.nanoTime();
+		int[][] channels = channelMode.combine(i, bottom, detected, context);
+
+		if (context.metrics != null) {
+			context.metrics.record(Metrics.Stage.EDGES, detectedAt - start);
+			context.metrics.record(Metrics.Stage.INTERLACE, System.nanoTime() - detectedAt);
+		}
+
+		return channels;
+	}
+
+	/**
+	 * Compute the channels to write for a frame, or reuse those of an identical recent frame from the memo.
+	 * @param frameMemo the memo to look the frame up in and add it to, or null to always compute the channels.
+	 * @return the channels to pass to {@link VideoOutput#writeFrame}, which point into the context.
+	 */
+	static int[][] processFrame(int i, GreyFrame frame, VideoOutput output, boolean spike, ModeStrategy channelMode,
+										ThresholdStrategy threshold, FrameContext context, @Nullable FrameMemo frameMemo) throws IOException {
+		if (frameMemo == null) {
+			return processFrame(i, frame, output, spike, channelMode, threshold, context);
+		}
+
+		long start = System.nanoTime();
+		FrameMemo.Key key = frameMemo.key(frame, channelMode.variant(i));
+		int[][] channels = frameMemo.get(key, context);
+		long memoNanos = System.nanoTime() - start;
+
+		if (channels == null) {
+			// detect edges from the levels the key already sampled
+			channels = processFrame(i, frame, key.sampled(), output, spike, channelMode, threshold, context);
+			start = System.nanoTime();
+			frameMemo.put(key, channels);
+			memoNanos += System.nanoTime() - start;
+		}
+
+		if (context.metrics != null) {
+			context.metrics.record(Metrics.Stage.MEMO, memoNanos);
+		}
+
+		return channels;
 	}
 
-	private static void pixelInterlace(int height, int[] top, int[] bottom, int[] ...alternating) {
+	static void pixelInterlace(int height, int[] top, int[] bottom, int[] ...alternating) {
 		int depth = (alternating.length+1) / 2;
 		for (int x = 0; x < top.length; x++) {
 			int colDepth = x % (depth+1);
@@ -340,74 +762,16 @@ public class BadAppleOscilliscope {
 	public record EdgeResult(int[] bottom, int[] top) {
 	}
 
-	public static EdgeResult detectEdges(BufferedImage in, VideoOutput out, Threshold threshold, int skip, boolean spike) throws IOException {
-		final int horizontalResolution = out.getWidth();
-
-		// create output channels
-		int[] channel1 = new int[horizontalResolution]; // channel 1, for lower edge
-		int[] channel2 = new int[horizontalResolution]; // channel 2, for upper edge
-
-		// detect and find upper and lower edge
-		for (int x = 0; x < horizontalResolution; x++) {
-			// Lower edge
-			double xConversionFactor = (double) in.getWidth() / horizontalResolution;
-			double yConversionFactor = (double) out.getHeight() / in.getHeight();
-
-			int eqXIn = (int) (xConversionFactor * x);
-			int passes = skip;
-
-			int y;
-			boolean current = threshold.threshold(in.getRGB(eqXIn, in.getHeight() - 1), false, true);
-
-			for (y = in.getHeight() - 1; y >= 0; y--) {
-				if (threshold.threshold(in.getRGB(eqXIn, y), current, false) != current) {
-					current = !current;
-
-					// when passes was 0 exit. That is, tolerate <passes> number of edges before exiting.
-					if (passes-- == 0) {
-						break;
-					}
-				}
-			}
-
-			// if didn't find enough edges, lock to bottom
-			if (passes >= 0) y = in.getHeight() - 1;
-
-			// convert to output y and write to channel 1
-			int eqYOut = (int) (yConversionFactor * y);
-			channel1[x] = eqYOut;
-
-			// Upper Edge
-			//=================
-			passes = skip;
-			current = threshold.threshold(in.getRGB(eqXIn, 0), false, true);
-
-			for (y = 0; y < in.getHeight(); y++) {
-				if (threshold.threshold(in.getRGB(eqXIn, y), current, false) != current) {
-					current = !current;
-
-					// when passes was 0 exit. That is, tolerate <passes> number of edges before exiting.
-					if (passes-- == 0) {
-						break;
-					}
-				}
-			}
-
-			// if didn't find enough edges, lock to bottom
-			if (passes >= 0) y = in.getHeight() - 1;
-
-			// convert to output y and write to channel 2
-			eqYOut = (int) (yConversionFactor * y);
-			channel2[x] = eqYOut;
-		}
-
-		// if spike, override beginning of frame with spike out put range. This is useful for aligning on the oscilliscope (trigger).
-		if (spike) {
-			channel1[0] = -1;
-			channel2[0] = -1;
-		}
+	public static EdgeResult detectEdges(GreyFrame in, VideoOutput out, ThresholdStrategy threshold, int skip, boolean spike) {
+		return EdgeDetector.detect(in, out.getWidth(), out.getHeight(), threshold, skip, spike);
+	}
 
-		return new EdgeResult(channel1, channel2);
+	/**
+	 * Detect the first {@code edges} edges from each side in one pass over the frame.
+	 * @return an array where element n is the result of {@link #detectEdges} with {@code skip = n}.
+	 */
+	public static EdgeResult[] detectAllEdges(GreyFrame in, VideoOutput out, ThresholdStrategy threshold, int edges, boolean spike) {
+		return EdgeDetector.detectAll(in, out.getWidth(), out.getHeight(), threshold, edges, spike);
 	}
 
 	static String leftPad(int number, int length) {
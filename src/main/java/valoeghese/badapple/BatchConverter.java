@@ -0,0 +1,410 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+import valoeghese.badapple.BadAppleOscilliscope.TextOptions;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Converts sources into many targets in one run, as listed in a job file. Each frame of a source is read and decoded
+ * once for every threshold its targets use, then edge detection runs for each target on a shared pool of worker threads,
+ * and a single writer hands every target its channels in frame order.
+ *
+ * <p>A job file lists each source, followed by the targets to convert it into:</p>
+ * <pre>
+ * # paths are relative to the job file
+ * source clip.zip
+ * out/clip-2i.dat 200 128 --rawb --mode=2i
+ * out/clip.txt.gz 480 255 --raw --gzip --mode=4pi8 --smooth=median:3
+ * out/frames 480 360 --mode=3x
+ *
+ * source frames.raw --frame-size=480x360 --from=100 --to=400
+ * out/frames.wav 480 255 --wav --sample-rate=48000
+ * </pre>
+ * <p>A source takes {@code --frame-size}, {@code --from} and {@code --to}. A target is its output file (or folder, for
+ * images), width and height, followed by the flags given for a single conversion: the export type, mode, threshold and
+ * the settings which go with them. Streaming, caching and resuming are not available in a batch.</p>
+ */
+public final class BatchConverter {
+	private BatchConverter() {
+	}
+
+	private static final Set<String> SOURCE_FLAGS = Set.of("--frame-size", "--from", "--to");
+	// streaming, caching, resuming and the settings for the whole run are not available per target
+	private static final Set<String> TARGET_FLAGS = Set.of("--raw", "--rawb", "--delta", "--png", "--wav", "--pcm", "--csv", "--text-header",
+			"--gzip", "--mode", "--threshold", "--spike", "--novert", "--no-memo", "--sampling", "--smooth", "--route", "--sample-rate",
+			"--frame-rate", "--png-level", "--png-zip");
+
+	/**
+	 * A source and the targets to convert it into.
+	 * @param from the first frame to convert, numbered from 1.
+	 * @param to the last frame to convert, or 0 to convert to the end of the source.
+	 */
+	record Source(Path path, int frameWidth, int frameHeight, int from, int to, List<Target> targets) {
+	}
+
+	/**
+	 * One output of a source.
+	 * @param exportType as passed to {@link BadAppleOscilliscope#run}, except that streaming is not allowed.
+	 */
+	record Target(Path output, int width, int height, int exportType, ModeStrategy mode, ThresholdStrategy threshold,
+				  boolean spike, boolean noVert, boolean memo, EdgeDetector.Sampling sampling, TraceFilter.Options filter,
+				  TextOptions text, PcmOutput.@Nullable Options audio, int pngLevel, boolean pngContainer) {
+	}
+
+	/**
+	 * Convert every source in a job file.
+	 * @param threads the number of worker threads shared by the targets of each source.
+	 */
+	public static void run(Path jobFile, int threads) throws IOException {
+		List<Source> sources = read(jobFile);
+
+		System.out.println("%% BadAppleOscilloscope %%");
+		System.out.println(" > Batch: " + sources.size() + " sources, " + sources.stream().mapToInt(source -> source.targets().size()).sum() + " targets from " + jobFile);
+		System.out.println(" > Threads: " + threads);
+
+		for (Source source : sources) {
+			convert(source, threads);
+		}
+	}
+
+	/**
+	 * Read the sources and targets listed in a job file.
+	 * @throws IOException if the file cannot be read, or a line of it is invalid.
+	 */
+	static List<Source> read(Path jobFile) throws IOException {
+		Path base = jobFile.toAbsolutePath().getParent();
+		List<Source> sources = new ArrayList<>();
+		Source source = null;
+		int lineNumber = 0;
+
+		for (String line : Files.readAllLines(jobFile)) {
+			lineNumber++;
+			line = line.strip();
+
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			String[] words = line.split("\\s+");
+			String where = jobFile.getFileName() + " line " + lineNumber + ": ";
+
+			if (words[0].equals("source")) {
+				source = readSource(base, words, where);
+				sources.add(source);
+			}
+			else if (source == null) {
+				throw new IOException(where + "a target must come after the source it is converted from");
+			}
+			else {
+				source.targets().add(readTarget(base, words, where));
+			}
+		}
+
+		for (Source each : sources) {
+			if (each.targets().isEmpty()) {
+				throw new IOException(jobFile.getFileName() + ": source " + each.path() + " has no targets");
+			}
+		}
+
+		return sources;
+	}
+
+	private static Source readSource(Path base, String[] words, String where) throws IOException {
+		if (words.length < 2) {
+			throw new IOException(where + "expected source <zip/folder/raw file> [--frame-size=WxH] [--from=N] [--to=N]");
+		}
+
+		ConversionFlags flags = flags(words, 2, SOURCE_FLAGS, where, "for a source");
+		return new Source(base.resolve(words[1]), flags.frameWidth, flags.frameHeight, flags.from, flags.to, new ArrayList<>());
+	}
+
+	private static Target readTarget(Path base, String[] words, String where) throws IOException {
+		if (words.length < 3) {
+			throw new IOException(where + "expected <output> <width> <height> [flags]");
+		}
+
+		int width = positive(words[1], where, "width");
+		int height = positive(words[2], where, "height");
+		ConversionFlags flags = flags(words, 3, TARGET_FLAGS, where, "for a target in a batch");
+		List<Integer> exportTypes = flags.exportTypes();
+
+		if (exportTypes.size() > 1) {
+			throw new IOException(where + "a target has a single export type");
+		}
+
+		return new Target(base.resolve(words[0]), width, height, exportTypes.get(0), flags.mode, flags.threshold, flags.spike, flags.noVert,
+				flags.memo, flags.sampling, flags.filter, flags.text(), flags.audio(), flags.pngLevel, flags.pngContainer);
+	}
+
+	/**
+	 * Parse the flags of a line from the given word on, as they would be parsed from the command line.
+	 * @param allowed the names of the flags which may be given on this kind of line, up to any '='.
+	 */
+	private static ConversionFlags flags(String[] words, int first, Set<String> allowed, String where, String place) throws IOException {
+		List<String> arguments = Arrays.asList(words).subList(first, words.length);
+
+		try {
+			ConversionFlags flags = ConversionFlags.parse(arguments);
+
+			if (!flags.arguments.isEmpty()) {
+				throw new IllegalArgumentException("Unexpected " + flags.arguments.get(0));
+			}
+
+			flags.allowOnly(allowed, place);
+			return flags;
+		} catch (IllegalArgumentException e) {
+			throw new IOException(where + e.getMessage());
+		}
+	}
+
+	private static int positive(String value, String where, String name) throws IOException {
+		try {
+			int number = Integer.parseInt(value);
+
+			if (number > 0) {
+				return number;
+			}
+		} catch (NumberFormatException ignored) {
+		}
+
+		throw new IOException(where + "the " + name + " must be a positive integer, not " + value);
+	}
+
+	/**
+	 * Convert one source into all of its targets.
+	 */
+	private static void convert(Source source, int threads) throws IOException {
+		final List<Target> targets = source.targets();
+		// each threshold is decoded once per frame, however many targets use it
+		final ThresholdStrategy[] thresholds = targets.stream().map(Target::threshold).distinct().toArray(ThresholdStrategy[]::new);
+		final int[] thresholdOf = new int[targets.size()];
+		// targets' channels are laid end to end in the channels passed to the writer
+		final int[] offsets = new int[targets.size() + 1];
+		// filtering starts early enough for every target, and holds back each target's frames before the first
+		int warmUp = 0;
+
+		for (int t = 0; t < targets.size(); t++) {
+			Target target = targets.get(t);
+			thresholdOf[t] = Arrays.asList(thresholds).indexOf(target.threshold());
+			offsets[t + 1] = offsets[t] + target.mode().channels();
+			warmUp = Math.max(warmUp, TraceFilter.warmUp(target.mode(), target.filter(), source.from()));
+		}
+
+		final int first = source.from() - warmUp;
+		final VideoOutput[] outputs = new VideoOutput[targets.size()];
+		final TraceFilter[] filters = new TraceFilter[targets.size()];
+		final FrameMemo[] memos = new FrameMemo[targets.size()];
+
+		System.out.println(" > Source: " + source.path());
+
+		try {
+			for (int t = 0; t < targets.size(); t++) {
+				Target target = targets.get(t);
+				outputs[t] = open(target, source.from(), threads);
+				filters[t] = new TraceFilter(target.mode(), target.width(), target.filter(), first, source.from());
+				memos[t] = target.memo() ? new FrameMemo(target.width(), target.threshold(), 16, target.sampling()) : null;
+				System.out.println("     " + target.output() + ": " + target.width() + "x" + target.height() + ", " + target.mode() + ", " + target.threshold());
+			}
+		} catch (IOException | RuntimeException e) {
+			closeAll(outputs, e);
+			throw e;
+		}
+
+		final Metrics metrics = new Metrics(threads);
+		final BatchOutput output = new BatchOutput(outputs, filters, offsets);
+		long time = System.nanoTime();
+
+		try (FrameSource src = FrameSource.open(source.path(), source.frameWidth(), source.frameHeight());
+			 FramePipeline<BatchContext> pipeline = new FramePipeline<>(output, threads, threads * 4,
+					 () -> new BatchContext(targets, thresholds.length, offsets, metrics), metrics)) {
+			if (first > 1) {
+				src.skip(first - 1);
+			}
+
+			for (int i = first; source.to() == 0 || i <= source.to(); i++) {
+				long readStart = System.nanoTime();
+				final SourceFrame frame = src.next();
+
+				if (frame == null) {
+					break;
+				}
+
+				metrics.record(Metrics.Stage.READ, System.nanoTime() - readStart);
+				final int frameNumber = i;
+
+				pipeline.submit(context -> {
+					long start = System.nanoTime();
+					GreyFrame[] decoded = frame.decode(thresholds, context.levels);
+
+					for (int n = 0; n < decoded.length; n++) {
+						context.levels[n] = decoded[n].getLevels();
+					}
+
+					metrics.record(Metrics.Stage.DECODE, System.nanoTime() - start);
+
+					for (int t = 0; t < targets.size(); t++) {
+						Target target = targets.get(t);
+						int[][] channels = BadAppleOscilliscope.processFrame(frameNumber, decoded[thresholdOf[t]], outputs[t], target.spike(),
+								target.mode(), target.threshold(), context.targets[t], memos[t]);
+						System.arraycopy(channels, 0, context.channels, offsets[t], channels.length);
+					}
+
+					return context.channels;
+				});
+			}
+
+			pipeline.finish();
+			time = System.nanoTime() - time;
+			metrics.setGc(pipeline.getGcCount(), pipeline.getGcMillis(), pipeline.getAllocatedBytes());
+		} catch (IOException | RuntimeException e) {
+			closeAll(outputs, e);
+			throw e;
+		}
+
+		output.close();
+		output.printSummary(System.out);
+
+		metrics.setBytesWritten(output.getBytesWritten());
+		metrics.printSummary(time, System.out);
+	}
+
+	private static VideoOutput open(Target target, int from, int threads) throws IOException {
+		final Path path = target.output();
+		final int width = target.width();
+		final int height = target.height();
+		Files.createDirectories(target.exportType() == 0 ? path : path.toAbsolutePath().getParent());
+
+		return switch (target.exportType()) {
+			case 5 -> new DeltaOutput(path, width, height);
+			case 4 -> new PcmOutput(path, width, height, target.audio().bits(), target.audio().header(),
+					(int) Math.round(width * target.audio().frameRate()), target.audio().sampleRate());
+			case 2 -> new Bits8Output(path, width, height);
+			case 1 -> new TextFileOutput(path, width, height, target.text().separator(), target.text().header(), target.text().gzip());
+			default -> new BufferedImageOutput(path, width, height, target.spike() ? 1 : 0, from, target.noVert(), threads,
+					target.pngLevel(), target.pngContainer());
+		};
+	}
+
+	/**
+	 * Close every output which was opened, adding any failure to the given one.
+	 */
+	private static void closeAll(VideoOutput[] outputs, Throwable failure) {
+		for (VideoOutput output : outputs) {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The buffers for one slot of the pipeline: the levels decoded for each threshold, and a context for each target.
+	 */
+	private static final class BatchContext {
+		BatchContext(List<Target> targets, int thresholds, int[] offsets, Metrics metrics) {
+			this.levels = new byte[thresholds][];
+			this.targets = new FrameContext[targets.size()];
+
+			for (int t = 0; t < this.targets.length; t++) {
+				Target target = targets.get(t);
+				this.targets[t] = new FrameContext(target.width(), target.mode(), target.sampling(), metrics);
+			}
+
+			this.channels = new int[offsets[targets.size()]][];
+		}
+
+		final byte[][] levels;
+		final FrameContext[] targets;
+		final int[][] channels;
+	}
+
+	/**
+	 * Splits the channels of every target back up, and filters and writes each target's own.
+	 * The targets each have their own size, so this output has none.
+	 */
+	private static final class BatchOutput extends VideoOutput {
+		BatchOutput(VideoOutput[] outputs, TraceFilter[] filters, int[] offsets) {
+			super(0, 0);
+			this.outputs = outputs;
+			this.filters = filters;
+			this.offsets = offsets;
+			this.channels = new int[outputs.length][][];
+
+			for (int t = 0; t < outputs.length; t++) {
+				this.channels[t] = new int[offsets[t + 1] - offsets[t]][];
+			}
+		}
+
+		private final VideoOutput[] outputs;
+		private final TraceFilter[] filters;
+		private final int[] offsets;
+		// each target's channels, reused for every frame
+		private final int[][][] channels;
+
+		@Override
+		public void writeFrame(int[]... channels) throws IOException {
+			for (int t = 0; t < this.outputs.length; t++) {
+				System.arraycopy(channels, this.offsets[t], this.channels[t], 0, this.channels[t].length);
+				int[][] filtered = this.filters[t].apply(this.channels[t]);
+
+				if (filtered != null) {
+					this.outputs[t].writeFrame(filtered);
+				}
+			}
+		}
+
+		@Override
+		public long getBytesWritten() {
+			long bytes = 0;
+
+			for (VideoOutput output : this.outputs) {
+				if (output.getBytesWritten() < 0) {
+					return -1;
+				}
+
+				bytes += output.getBytesWritten();
+			}
+
+			return bytes;
+		}
+
+		@Override
+		public int getQueuedFrames() {
+			int queued = 0;
+
+			for (VideoOutput output : this.outputs) {
+				queued = Math.max(queued, output.getQueuedFrames());
+			}
+
+			return queued;
+		}
+
+		@Override
+		public void printSummary(PrintStream status) {
+			for (VideoOutput output : this.outputs) {
+				output.printSummary(status);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException failure = new IOException("Failed to close batch outputs");
+			closeAll(this.outputs, failure);
+
+			if (failure.getSuppressed().length > 0) {
+				throw failure;
+			}
+		}
+	}
+}
@@ -1,37 +1,201 @@
 package valoeghese.badapple;
 
-import org.jetbrains.annotations.Nullable;
-
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
-public class Bits8Output extends VideoOutput {
+/**
+ * Writes each sample as an unsigned byte, interleaving the channels column by column.
+ * Frames are staged in reusable direct buffers and written several at a time with a gathering write. If the number of
+ * frames is known up front, the file can instead be memory-mapped and filled in place.
+ */
+public class Bits8Output extends VideoOutput implements ResumableOutput {
 	public Bits8Output(Path file, int width, int height) throws IOException {
+		this(file, width, height, -1);
+	}
+
+	/**
+	 * @param frames the total number of frames that will be written, to memory-map the output; or -1 if not known.
+	 *               If fewer frames are written, the file is truncated on close.
+	 */
+	public Bits8Output(Path file, int width, int height, long frames) throws IOException {
+		this(file, width, height, frames, 0);
+	}
+
+	/**
+	 * @param resumeOffset the length of the file from an earlier run to keep and append to, or 0 to start a new file.
+	 *                     Cannot be combined with memory-mapping.
+	 */
+	public Bits8Output(Path file, int width, int height, long frames, long resumeOffset) throws IOException {
 		super(width, height);
 
-		if (!Files.exists(file)) {
-			Files.createFile(file);
+		if (resumeOffset > 0 && frames >= 0) {
+			throw new IllegalArgumentException("Cannot memory-map a resumed output");
 		}
 
-		this.outputStream = new DataOutputStream(Files.newOutputStream(file));
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.channel.truncate(resumeOffset);
+		this.channel.position(resumeOffset);
+		this.frames = frames;
 	}
 
-	private DataOutputStream outputStream;
+	// aim for about this many bytes per gathering write
+	private static final int STAGING_SIZE = 1 << 20;
+	// the largest region mapped at once
+	private static final int MAX_WINDOW = 1 << 30;
+
+	private final FileChannel channel;
+	private final long frames;
+	private byte[] frame = new byte[0];
+
+	// buffered mode
+	private ByteBuffer[] staged;
+	private int stagedCount;
+
+	// mapped mode
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long written;
+
+	private long bytesWritten;
 
 	@Override
 	public void writeFrame(int[] ...channels) throws IOException {
+		final int frameSize = channels[0].length * channels.length;
+
+		if (this.frame.length != frameSize) {
+			this.flush();
+			this.frame = new byte[frameSize];
+			this.staged = null;
+		}
+
+		final byte[] frame = this.frame;
+		final int height = this.getHeight();
+		int i = 0;
+
 		for (int x = 0; x < channels[0].length; x++) {
-            for (int[] channel : channels) {
-                this.outputStream.writeByte(this.getHeight() - channel[x] - 1);
-            }
+			for (int[] channel : channels) {
+				frame[i++] = (byte) (height - channel[x] - 1);
+			}
 		}
+
+		if (this.frames >= 0) {
+			this.writeMapped(frame);
+		}
+		else {
+			this.stage(frame);
+		}
+
+		this.bytesWritten += frameSize;
+	}
+
+	@Override
+	public long checkpoint() throws IOException {
+		if (this.window != null) {
+			this.window.force();
+			return this.written * this.frame.length;
+		}
+
+		this.flush();
+		this.channel.force(false);
+		return this.channel.position();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return this.bytesWritten;
+	}
+
+	private void stage(byte[] frame) throws IOException {
+		if (this.staged == null) {
+			this.staged = new ByteBuffer[Math.max(1, STAGING_SIZE / frame.length)];
+
+			for (int n = 0; n < this.staged.length; n++) {
+				this.staged[n] = ByteBuffer.allocateDirect(frame.length);
+			}
+		}
+
+		this.staged[this.stagedCount++].put(frame);
+
+		if (this.stagedCount == this.staged.length) {
+			this.flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		if (this.stagedCount == 0) {
+			return;
+		}
+
+		for (int n = 0; n < this.stagedCount; n++) {
+			this.staged[n].flip();
+		}
+
+		// a gathering write may stop early, so keep going until the last buffer is drained
+		while (this.staged[this.stagedCount - 1].hasRemaining()) {
+			this.channel.write(this.staged, 0, this.stagedCount);
+		}
+
+		for (int n = 0; n < this.stagedCount; n++) {
+			this.staged[n].clear();
+		}
+
+		this.stagedCount = 0;
+	}
+
+	private void writeMapped(byte[] frame) throws IOException {
+		final long offset = this.written * frame.length;
+
+		if (this.window == null || offset + frame.length > this.windowStart + this.window.capacity()) {
+			if (this.window != null) {
+				unmap(this.window);
+			}
+
+			long totalSize = Math.max(this.frames, this.written + 1) * frame.length;
+			// keep windows frame aligned so a frame never straddles two mappings
+			long windowSize = Math.min(totalSize - offset, Math.max(1, MAX_WINDOW / frame.length) * (long) frame.length);
+			this.window = this.channel.map(FileChannel.MapMode.READ_WRITE, offset, windowSize);
+			this.windowStart = offset;
+		}
+
+		this.window.put(frame);
+		this.written++;
 	}
 
 	@Override
 	public void close() throws IOException {
-		this.outputStream.flush();
-		this.outputStream.close();
+		try {
+			if (this.window != null) {
+				this.window.force();
+				unmap(this.window);
+				this.window = null;
+				// in case fewer frames were written than expected
+				this.channel.truncate(this.written * this.frame.length);
+			}
+
+			this.flush();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * Unmap a window now rather than whenever it is garbage collected. A file cannot be truncated while any part of it
+	 * is still mapped on some platforms (Windows), whether by this output or an earlier one on the same file.
+	 * The buffer must not be used afterwards.
+	 */
+	private static void unmap(MappedByteBuffer window) throws IOException {
+		try {
+			Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+			Field instance = unsafe.getDeclaredField("theUnsafe");
+			instance.setAccessible(true);
+			unsafe.getMethod("invokeCleaner", ByteBuffer.class).invoke(instance.get(null), window);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IOException("Could not unmap the output", e);
+		}
 	}
 }
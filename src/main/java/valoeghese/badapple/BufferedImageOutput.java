@@ -2,33 +2,108 @@ package valoeghese.badapple;
 
 import org.jetbrains.annotations.Nullable;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.FileAlreadyExistsException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static valoeghese.badapple.BadAppleOscilliscope.leftPad;
 
+/**
+ * Renders each frame as a PNG image of the channels' traces.
+ * Frames are drawn on the calling thread and encoded by a pool of background threads, with a bounded number of frames
+ * waiting to be encoded at once. Images are either written as a file per frame, or stored in order in a single zip.
+ */
 public final class BufferedImageOutput extends VideoOutput {
-	public BufferedImageOutput(Path directory, int resolutionX, int resolutionY, int offset, int startFrameNumber, boolean noVert) {
+	public BufferedImageOutput(Path directory, int resolutionX, int resolutionY, int offset, int startFrameNumber, boolean noVert) throws IOException {
+		this(directory, resolutionX, resolutionY, offset, startFrameNumber, noVert, 1, -1, false);
+	}
+
+	/**
+	 * @param encoders the number of threads encoding images in the background.
+	 * @param compressionLevel the deflate level from 0 (uncompressed, fastest) to 9 (smallest), or -1 for the encoder's default.
+	 * @param container whether to store every image in a single {@code frames.zip} in the directory instead of a file per frame.
+	 */
+	public BufferedImageOutput(Path directory, int resolutionX, int resolutionY, int offset, int startFrameNumber, boolean noVert,
+							   int encoders, int compressionLevel, boolean container) throws IOException {
 		super(resolutionX, resolutionY);
 		this.directory = directory;
 		this.frameNumber = startFrameNumber;
 		this.offset = offset;
 		this.noVert = noVert;
+		this.compressionLevel = compressionLevel;
+
+		// enough images that every encoder is busy while the next frame is drawn
+		int canvases = encoders * 2;
+		this.canvases = new ArrayBlockingQueue<>(canvases);
+
+		for (int n = 0; n < canvases; n++) {
+			this.canvases.add(new Canvas(resolutionX, resolutionY + offset));
+		}
+
+		this.maxPending = canvases * 2;
+		this.encoders = Executors.newFixedThreadPool(encoders, r -> {
+			Thread thread = new Thread(r, "png-encoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (container) {
+			Path file = directory.resolve("frames.zip");
+			Files.deleteIfExists(file);
+			this.container = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+		}
+		else {
+			this.container = null;
+		}
 	}
 
 	private final Path directory;
 	private final int offset;
 	private final boolean noVert;
+	private final int compressionLevel;
 	private int frameNumber;
 
+	private final BlockingQueue<Canvas> canvases;
+	private final ExecutorService encoders;
+	private final @Nullable ZipOutputStream container;
+	// frames submitted for encoding, oldest first
+	private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+	private final int maxPending;
+	private final ThreadLocal<ImageWriter> writers = ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName("png").next());
+
+	// the last frame drawn, so a repeated frame can reuse its image instead of encoding it again
+	private int[][] previousChannels;
+	private Pending previous;
+	private int reusedFrames;
+	private long bytesWritten;
+
+	private int[] prevYChN = new int[0];
+
 	private enum Channels {
 		CH_1(Color.YELLOW),
 		CH_2(Color.GREEN),
@@ -45,62 +120,283 @@ public final class BufferedImageOutput extends VideoOutput {
 		private final Color colour;
 	}
 
+	// channel colours as TYPE_INT_RGB pixels
+	private static final int[] PALETTE = Arrays.stream(Channels.values()).mapToInt(channel -> channel.colour.getRGB() & 0xFFFFFF).toArray();
+
 	@Override
 	public void writeFrame(int[] ...channels) throws IOException {
-		BufferedImage outputFrame = new BufferedImage(this.getWidth(), this.getHeight() + this.offset, BufferedImage.TYPE_INT_RGB);
+		final String name = "output_" + leftPad(this.frameNumber, 4) + ".png";
+		final Path outputFile = this.directory.resolve(name);
+		this.frameNumber++;
 
-		// write black image
-		Graphics2D graphics2D = outputFrame.createGraphics();
-		graphics2D.setColor(Color.BLACK);
-		graphics2D.fillRect(0, 0, outputFrame.getWidth(), outputFrame.getHeight());
+		if (this.previous != null && Arrays.deepEquals(channels, this.previousChannels)) {
+			final Pending source = this.previous;
 
-		// for continuous line
-		int[] prevYChN = new int[channels.length];
-		Arrays.fill(prevYChN, -1);
+			if (this.container != null) {
+				// store the same bytes again
+				this.submit(new Pending(name, source.image, false));
+			}
+			else {
+				this.submit(new Pending(name, this.encoders.submit(() -> {
+					// wait for the image to exist before linking to it
+					byte[] image = source.image.get();
+					Path sourceFile = this.directory.resolve(source.name);
+					Files.deleteIfExists(outputFile);
 
-		for (int x = 0; x < this.getWidth(); x++) {
-			for (int ch = 0; ch < channels.length; ch++) {
-				int[] channel = channels[ch];
+					try {
+						Files.createLink(outputFile, sourceFile);
+					} catch (UnsupportedOperationException | IOException e) {
+						Files.copy(sourceFile, outputFile);
+					}
 
-				int nextY = channel[x] + this.offset;
-				drawVerticalLine(outputFrame, x, this.noVert ? nextY : prevYChN[ch], nextY, Channels.values()[ch & 7].colour.getRGB());
-				prevYChN[ch] = channel[x]; // note to self: why does this not have +offset too? Issue? Pretty sure I would have commented why
+					return image;
+				}), true));
 			}
+
+			this.reusedFrames++;
+			return;
 		}
 
-		// write
-		Path outputFile = this.directory.resolve("output_" + leftPad(this.frameNumber, 4) + ".png");
+		final Canvas canvas;
 
 		try {
-			Files.createFile(outputFile);
-		} catch (FileAlreadyExistsException ignored) {
+			canvas = this.canvases.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for an image to draw on", e);
 		}
 
-		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(outputFile))) {
-			ImageIO.write(outputFrame, "png", stream);
+		// the canvas goes back to the pool once encoded, or now if it never gets that far
+		final Pending frame;
+		boolean queued = false;
+
+		try {
+			canvas.clear();
+
+			// for continuous line
+			if (this.prevYChN.length != channels.length) {
+				this.prevYChN = new int[channels.length];
+			}
+
+			int[] prevYChN = this.prevYChN;
+			Arrays.fill(prevYChN, -1);
+
+			for (int x = 0; x < this.getWidth(); x++) {
+				for (int ch = 0; ch < channels.length; ch++) {
+					int[] channel = channels[ch];
+
+					int nextY = channel[x] + this.offset;
+					canvas.drawVerticalLine(x, this.noVert ? nextY : prevYChN[ch], nextY, PALETTE[ch & 7]);
+					prevYChN[ch] = channel[x]; // note to self: why does this not have +offset too? Issue? Pretty sure I would have commented why
+				}
+			}
+
+			frame = new Pending(name, this.encoders.submit(() -> {
+				byte[] image;
+
+				try {
+					image = this.encode(canvas.image);
+				} finally {
+					this.canvases.add(canvas);
+				}
+
+				if (this.container == null) {
+					// replace rather than overwrite, as an existing file may be linked to others from a previous run
+					Files.deleteIfExists(outputFile);
+
+					try (OutputStream stream = Files.newOutputStream(outputFile)) {
+						stream.write(image);
+					}
+				}
+
+				return image;
+			}), false);
+			queued = true;
+		} finally {
+			if (!queued) {
+				this.canvases.add(canvas);
+			}
 		}
 
-		// next frame
-		this.frameNumber++;
+		this.submit(frame);
+
+		// copy, since callers may reuse their arrays
+		if (this.previousChannels == null || this.previousChannels.length != channels.length) {
+			this.previousChannels = new int[channels.length][channels[0].length];
+		}
+
+		for (int ch = 0; ch < channels.length; ch++) {
+			System.arraycopy(channels[ch], 0, this.previousChannels[ch], 0, channels[ch].length);
+		}
+
+		this.previous = frame;
+	}
+
+	private byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageWriter writer = this.writers.get();
+		ImageWriteParam param = null;
+
+		if (this.compressionLevel >= 0) {
+			// the PNG writer maps quality q to deflate level 9 - round(9q)
+			param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality((9 - this.compressionLevel) / 9.0f);
+		}
+
+		try (ImageOutputStream stream = new MemoryCacheImageOutputStream(bytes)) {
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.reset();
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private void submit(Pending frame) throws IOException {
+		this.pending.add(frame);
+
+		// finish frames in order, waiting only if too many are queued
+		while (!this.pending.isEmpty() && (this.pending.size() > this.maxPending || this.pending.peek().image.isDone())) {
+			this.finish(this.pending.poll());
+		}
+	}
+
+	private void finish(Pending frame) throws IOException {
+		byte[] image;
+
+		try {
+			image = frame.image.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for frame " + frame.name + " to encode", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to write frame " + frame.name, e.getCause());
+		}
+
+		// a linked file takes no more space
+		if (!frame.linked) {
+			this.bytesWritten += image.length;
+		}
+
+		if (this.container != null) {
+			// images are already compressed, so store them as they are
+			CRC32 crc = new CRC32();
+			crc.update(image);
+
+			ZipEntry entry = new ZipEntry(frame.name);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(image.length);
+			entry.setCompressedSize(image.length);
+			entry.setCrc(crc.getValue());
+
+			this.container.putNextEntry(entry);
+			this.container.write(image);
+			this.container.closeEntry();
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		try {
+			while (!this.pending.isEmpty()) {
+				this.finish(this.pending.poll());
+			}
+
+			if (this.container != null) {
+				this.container.close();
+			}
+		} finally {
+			this.encoders.shutdownNow();
+		}
+	}
+
+	@Override
+	public void printSummary(PrintStream status) {
+		if (this.reusedFrames > 0) {
+			status.println(" > Reused the image of an identical previous frame for " + this.reusedFrames + " frames");
+		}
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return this.bytesWritten;
 	}
 
-	private static void drawVerticalLine(BufferedImage image, int x, int prevY, int nextY, int rgb) {
-		if (prevY == -1) {
-			image.setRGB(x, nextY, rgb);
+	@Override
+	public int getQueuedFrames() {
+		return this.pending.size();
+	}
+
+	/**
+	 * @param linked whether the frame's file is a link to an earlier frame's file rather than a new file.
+	 */
+	private record Pending(String name, Future<byte[]> image, boolean linked) {
+	}
+
+	/**
+	 * An image to draw a frame on, which remembers where it was drawn on so that clearing it is cheap.
+	 */
+	private static final class Canvas {
+		Canvas(int width, int height) {
+			this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+			this.stride = ((SinglePixelPackedSampleModel) this.image.getSampleModel()).getScanlineStride();
+			this.touchedTop = new int[width];
+			this.touchedBottom = new int[width];
+			// a fresh image is already black
+			Arrays.fill(this.touchedTop, Integer.MAX_VALUE);
+			Arrays.fill(this.touchedBottom, Integer.MIN_VALUE);
 		}
-		else if (prevY > nextY) {
-			for (int y = nextY; y <= prevY; y++) {
-				image.setRGB(x, y, rgb);
+
+		// lines are drawn straight into the image's pixel array
+		final BufferedImage image;
+		private final int[] pixels;
+		private final int stride;
+		// the rows drawn on in each column, so only those need clearing for the next frame
+		private final int[] touchedTop;
+		private final int[] touchedBottom;
+
+		/**
+		 * Write black image, only where the last frame drew.
+		 */
+		void clear() {
+			for (int x = 0; x < this.touchedTop.length; x++) {
+				for (int y = this.touchedTop[x]; y <= this.touchedBottom[x]; y++) {
+					this.pixels[y * this.stride + x] = 0;
+				}
+
+				this.touchedTop[x] = Integer.MAX_VALUE;
+				this.touchedBottom[x] = Integer.MIN_VALUE;
 			}
 		}
-		else {
-			for (int y = prevY; y <= nextY; y++) {
-				image.setRGB(x, y, rgb);
+
+		void drawVerticalLine(int x, int prevY, int nextY, int rgb) {
+			int top, bottom;
+
+			if (prevY == -1) {
+				top = bottom = nextY;
+			}
+			else if (prevY > nextY) {
+				top = nextY;
+				bottom = prevY;
+			}
+			else {
+				top = prevY;
+				bottom = nextY;
 			}
+
+			if (top < 0 || bottom >= this.image.getHeight()) {
+				throw new ArrayIndexOutOfBoundsException("Line from y=" + top + " to y=" + bottom + " is out of bounds");
+			}
+
+			for (int y = top, i = top * this.stride + x; y <= bottom; y++, i += this.stride) {
+				this.pixels[i] = rgb;
+			}
+
+			if (top < this.touchedTop[x]) this.touchedTop[x] = top;
+			if (bottom > this.touchedBottom[x]) this.touchedBottom[x] = bottom;
 		}
 	}
 }
@@ -0,0 +1,116 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Periodically records the last frame written to a {@link ResumableOutput} and the length of its file, so that a failed
+ * conversion can pick up where it stopped. The record is only replaced once the output has been forced to disk, and is
+ * replaced atomically, so it never points past data that could have been lost.
+ */
+public final class Checkpoint {
+	/**
+	 * @param file where to record progress.
+	 * @param fingerprint a description of the conversion, which must match for a later run to resume from this record.
+	 * @param interval how many frames to write between checkpoints.
+	 * @param firstFrame the number of the first frame written by this run.
+	 */
+	public Checkpoint(Path file, String fingerprint, int interval, long firstFrame) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.interval = interval;
+		this.firstFrame = firstFrame;
+	}
+
+	private final Path file;
+	private final String fingerprint;
+	private final int interval;
+	private final long firstFrame;
+
+	/**
+	 * Progress recorded by an earlier run.
+	 * @param frame the number of the last frame written completely.
+	 * @param offset the length of the output file after that frame.
+	 */
+	public record State(long frame, long offset) {
+	}
+
+	/**
+	 * @return the checkpoint file recording progress on the given output file.
+	 */
+	public static Path fileFor(Path output) {
+		return output.resolveSibling(output.getFileName() + ".checkpoint");
+	}
+
+	/**
+	 * Read the progress recorded in a checkpoint file.
+	 * @return the progress, or null if there is no checkpoint file.
+	 * @throws IOException if the checkpoint is unreadable or was recorded for a different conversion.
+	 */
+	public static @Nullable State read(Path file, String fingerprint) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		Properties properties = new Properties();
+
+		try (Reader reader = Files.newBufferedReader(file)) {
+			properties.load(reader);
+		}
+
+		if (!fingerprint.equals(properties.getProperty("fingerprint"))) {
+			throw new IOException("Checkpoint " + file + " was recorded for a different conversion: " + properties.getProperty("fingerprint"));
+		}
+
+		try {
+			return new State(Long.parseLong(properties.getProperty("frame")), Long.parseLong(properties.getProperty("offset")));
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt checkpoint " + file, e);
+		}
+	}
+
+	/**
+	 * Called by the writer after each frame, to checkpoint every {@code interval} frames.
+	 * @param frames the number of frames this run has written.
+	 */
+	public void written(ResumableOutput output, long frames) throws IOException {
+		if (frames % this.interval == 0) {
+			this.save(output, frames);
+		}
+	}
+
+	/**
+	 * Checkpoint now.
+	 * @param frames the number of frames this run has written.
+	 */
+	public void save(ResumableOutput output, long frames) throws IOException {
+		long offset = output.checkpoint();
+
+		Properties properties = new Properties();
+		properties.setProperty("fingerprint", this.fingerprint);
+		properties.setProperty("frame", Long.toString(this.firstFrame + frames - 1));
+		properties.setProperty("offset", Long.toString(offset));
+
+		Path partial = this.file.resolveSibling(this.file.getFileName() + ".part");
+
+		try (Writer writer = Files.newBufferedWriter(partial)) {
+			properties.store(writer, null);
+		}
+
+		Files.move(partial, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Remove the checkpoint once the conversion has finished.
+	 */
+	public void delete() throws IOException {
+		Files.deleteIfExists(this.file);
+	}
+}
@@ -0,0 +1,304 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+import valoeghese.badapple.BadAppleOscilliscope.Mode;
+import valoeghese.badapple.BadAppleOscilliscope.RangeOptions;
+import valoeghese.badapple.BadAppleOscilliscope.TextOptions;
+import valoeghese.badapple.BadAppleOscilliscope.Threshold;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The flags of a conversion, parsed the same way whether they come from the command line or from a line of a batch job
+ * file. Flags may be given in any order among the other arguments, which are kept in {@link #arguments}.
+ */
+final class ConversionFlags {
+	final List<String> arguments = new ArrayList<>();
+	// the name of every flag given, up to any '='
+	final Set<String> given = new HashSet<>();
+
+	boolean raw;
+	boolean rawBinary;
+	boolean delta;
+	boolean png;
+	boolean csv;
+	boolean textHeader;
+	boolean gzip;
+	boolean spike;
+	boolean noVert;
+	boolean memo = true;
+	boolean mapOutput;
+	int pngLevel = -1;
+	boolean pngContainer;
+	ModeStrategy mode = Mode.CH_2_INTERLACING;
+	ThresholdStrategy threshold = Threshold.THRESHOLD_HYSTERETIC;
+	int threads = Runtime.getRuntime().availableProcessors();
+	int frameWidth;
+	int frameHeight;
+	@Nullable Path cacheDirectory;
+	@Nullable Path metricsFile;
+	int metricsInterval = 10;
+	@Nullable String streamTarget;
+	int sampleRate;
+	double frameRate = 30;
+	int lookAhead = 8;
+	int audioBits;
+	boolean audioHeader;
+	int from = 1;
+	int to;
+	int checkpointInterval;
+	boolean resume;
+	int chunk;
+	int chunks;
+	boolean vectorEdges;
+	EdgeDetector.Sampling sampling = EdgeDetector.Sampling.NEAREST;
+	@Nullable Path batchFile;
+	TraceFilter.Options filter = TraceFilter.Options.NONE;
+
+	/**
+	 * Parse every word, then check the flags make sense together.
+	 * @throws IllegalArgumentException with a message for the user if a flag is unknown, invalid or out of place.
+	 */
+	static ConversionFlags parse(List<String> words) {
+		ConversionFlags flags = new ConversionFlags();
+
+		for (String word : words) {
+			flags.parse(word);
+		}
+
+		flags.check();
+		return flags;
+	}
+
+	/**
+	 * Parse one argument, which is kept in {@link #arguments} if it is not a flag.
+	 * @throws IllegalArgumentException with a message for the user if the flag is unknown or its value is invalid.
+	 */
+	void parse(String s) {
+		if (!s.startsWith("--")) {
+			this.arguments.add(s);
+			return;
+		}
+
+		int equals = s.indexOf('=');
+		String name = equals < 0 ? s : s.substring(0, equals);
+
+		if (!this.given.add(name) && (name.equals("--mode") || name.equals("--threshold"))) {
+			throw new IllegalArgumentException("You cannot specify the " + name.substring(2) + " twice.");
+		}
+
+		if (s.startsWith("--threads=")) {
+			this.threads = positive(s.substring("--threads=".length()), "The number of threads must be a positive integer.");
+		}
+		else if (s.startsWith("--frame-size=")) {
+			String[] size = s.substring("--frame-size=".length()).split("x");
+			String message = "The frame size must be given as WxH, e.g. --frame-size=480x360.";
+
+			if (size.length != 2) {
+				throw new IllegalArgumentException(message);
+			}
+
+			this.frameWidth = positive(size[0], message);
+			this.frameHeight = positive(size[1], message);
+		}
+		else if (s.startsWith("--png-level=")) {
+			this.pngLevel = integer(s.substring("--png-level=".length()), -1);
+
+			if (this.pngLevel < 0 || this.pngLevel > 9) {
+				throw new IllegalArgumentException("The PNG compression level must be from 0 (uncompressed) to 9.");
+			}
+		}
+		else if (s.startsWith("--batch=")) {
+			this.batchFile = Path.of(s.substring("--batch=".length()));
+		}
+		else if (s.startsWith("--cache=")) {
+			this.cacheDirectory = Path.of(s.substring("--cache=".length()));
+		}
+		else if (s.startsWith("--stream=")) {
+			this.streamTarget = s.substring("--stream=".length());
+		}
+		else if (s.startsWith("--sample-rate=")) {
+			this.sampleRate = positive(s.substring("--sample-rate=".length()), "The sample rate must be a positive integer.");
+		}
+		else if (s.startsWith("--frame-rate=")) {
+			try {
+				this.frameRate = Double.parseDouble(s.substring("--frame-rate=".length()));
+			} catch (NumberFormatException e) {
+				this.frameRate = 0;
+			}
+
+			if (!(this.frameRate > 0) || Double.isInfinite(this.frameRate)) {
+				throw new IllegalArgumentException("The frame rate must be a positive number.");
+			}
+		}
+		else if (s.startsWith("--look-ahead=")) {
+			this.lookAhead = positive(s.substring("--look-ahead=".length()), "The look-ahead must be a positive number of frames.");
+		}
+		else if (s.startsWith("--wav") || s.startsWith("--pcm")) {
+			this.audioHeader = s.startsWith("--wav");
+			String bits = s.substring("--wav".length());
+			this.audioBits = bits.isEmpty() ? 16 : bits.startsWith("=") ? integer(bits.substring(1), 0) : 0;
+
+			if (this.audioBits != 8 && this.audioBits != 16 && this.audioBits != 24) {
+				throw new IllegalArgumentException("The audio sample size must be 8, 16 or 24 bits.");
+			}
+		}
+		else if (s.startsWith("--from=")) {
+			this.from = positive(s.substring("--from=".length()), "Frames are numbered from 1.");
+		}
+		else if (s.startsWith("--to=")) {
+			this.to = positive(s.substring("--to=".length()), "Frames are numbered from 1.");
+		}
+		else if (s.startsWith("--checkpoint")) {
+			String interval = s.substring("--checkpoint".length());
+			this.checkpointInterval = interval.isEmpty() ? 500 : interval.startsWith("=") ? integer(interval.substring(1), 0) : 0;
+
+			if (this.checkpointInterval < 1) {
+				throw new IllegalArgumentException("The checkpoint interval must be a positive number of frames.");
+			}
+		}
+		else if (s.startsWith("--chunk=")) {
+			String[] part = s.substring("--chunk=".length()).split("/");
+			this.chunk = part.length == 2 ? integer(part[0], 0) : 0;
+			this.chunks = part.length == 2 ? integer(part[1], 0) : 0;
+
+			if (this.chunk < 1 || this.chunk > this.chunks) {
+				throw new IllegalArgumentException("The chunk must be given as K/N, with K from 1 to N, e.g. --chunk=2/4.");
+			}
+		}
+		else if (s.startsWith("--chunks=")) {
+			this.chunks = positive(s.substring("--chunks=".length()), "The number of chunks must be a positive integer.");
+		}
+		else if (s.startsWith("--smooth=")) {
+			this.filter = this.filter.withSmoothing(s.substring("--smooth=".length()));
+
+			if (this.filter == null) {
+				throw new IllegalArgumentException("Smoothing must be given as [mean:|median:]N, over 2 to 64 frames, e.g. --smooth=median:3.");
+			}
+		}
+		else if (s.startsWith("--mode=")) {
+			this.mode = Strategies.mode(s.substring("--mode=".length()));
+
+			if (this.mode == null) {
+				throw new IllegalArgumentException("Unknown mode " + s + ". Available modes: " + Strategies.modes().stream().map(ModeStrategy::id).toList());
+			}
+		}
+		else if (s.startsWith("--threshold=")) {
+			this.threshold = Strategies.threshold(s.substring("--threshold=".length()));
+
+			if (this.threshold == null) {
+				throw new IllegalArgumentException("Unknown threshold " + s + ". Available thresholds: " + Strategies.thresholds().stream().map(ThresholdStrategy::id).toList());
+			}
+		}
+		else if (s.startsWith("--metrics=")) {
+			this.metricsFile = Path.of(s.substring("--metrics=".length()));
+		}
+		else if (s.startsWith("--metrics-interval=")) {
+			this.metricsInterval = integer(s.substring("--metrics-interval=".length()), -1);
+
+			if (this.metricsInterval < 0) {
+				throw new IllegalArgumentException("The metrics interval must be a whole number of seconds, or 0 to disable it.");
+			}
+		}
+		else {
+			switch (s) {
+			case "--raw" -> this.raw = true;
+			case "--rawb" -> this.rawBinary = true;
+			case "--delta" -> this.delta = true;
+			case "--png" -> this.png = true;
+			case "--csv" -> this.csv = true;
+			case "--text-header" -> this.textHeader = true;
+			case "--gzip" -> this.gzip = true;
+			case "--spike" -> this.spike = true;
+			case "--novert" -> this.noVert = true;
+			case "--no-memo" -> this.memo = false;
+			case "--mmap" -> this.mapOutput = true;
+			case "--png-zip" -> this.pngContainer = true;
+			case "--resume" -> this.resume = true;
+			case "--edges=vector" -> this.vectorEdges = true;
+			case "--edges=scalar" -> this.vectorEdges = false;
+			case "--sampling=nearest" -> this.sampling = EdgeDetector.Sampling.NEAREST;
+			case "--sampling=area" -> this.sampling = EdgeDetector.Sampling.AREA;
+			case "--route" -> this.filter = this.filter.withRoute();
+			default -> throw new IllegalArgumentException("Unknown flag " + s);
+			}
+		}
+	}
+
+	/**
+	 * Check the flags which only make sense together.
+	 * @throws IllegalArgumentException with a message for the user if they do not.
+	 */
+	void check() {
+		if ((this.csv || this.textHeader || this.gzip) && !this.raw) {
+			throw new IllegalArgumentException("--csv, --text-header and --gzip only apply to raw (text) output.");
+		}
+
+		if (this.to != 0 && this.to < this.from) {
+			throw new IllegalArgumentException("The last frame (--to) cannot be before the first (--from).");
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if any flag was given other than the allowed ones, named up to any '='.
+	 */
+	void allowOnly(Set<String> allowed, String where) {
+		for (String name : this.given) {
+			if (!allowed.contains(name)) {
+				throw new IllegalArgumentException(name + " cannot be given " + where + ".");
+			}
+		}
+	}
+
+	/**
+	 * @return the export types chosen, as passed to {@link BadAppleOscilliscope#run}; PNG images only by default.
+	 */
+	List<Integer> exportTypes() {
+		List<Integer> exportTypes = new ArrayList<>();
+		if (this.rawBinary) exportTypes.add(2);
+		if (this.raw) exportTypes.add(1);
+		if (this.delta) exportTypes.add(5);
+		if (this.audioBits != 0) exportTypes.add(4);
+		if (this.streamTarget != null) exportTypes.add(3);
+		if (this.png || exportTypes.isEmpty()) exportTypes.add(0);
+		return exportTypes;
+	}
+
+	TextOptions text() {
+		return new TextOptions(this.csv ? ',' : '\t', this.textHeader, this.gzip);
+	}
+
+	PcmOutput.@Nullable Options audio() {
+		return this.audioBits == 0 ? null : new PcmOutput.Options(this.audioBits, this.audioHeader, this.sampleRate, this.frameRate);
+	}
+
+	StreamOutput.@Nullable Options stream() {
+		return this.streamTarget == null ? null : new StreamOutput.Options(this.streamTarget, this.sampleRate, this.frameRate, this.lookAhead);
+	}
+
+	RangeOptions range() {
+		return new RangeOptions(this.from, this.to, this.checkpointInterval, this.resume, this.chunk, this.chunks);
+	}
+
+	private static int positive(String value, String message) {
+		int number = integer(value, 0);
+
+		if (number < 1) {
+			throw new IllegalArgumentException(message);
+		}
+
+		return number;
+	}
+
+	private static int integer(String value, int invalid) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return invalid;
+		}
+	}
+}
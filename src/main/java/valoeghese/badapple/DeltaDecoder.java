@@ -0,0 +1,268 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a file written by {@link DeltaOutput}, one after another or from any frame using the index.
+ * Frames are returned as channels in the form passed to {@link VideoOutput#writeFrame}, so they can be written straight
+ * to another output.
+ */
+public final class DeltaDecoder implements Closeable {
+	public DeltaDecoder(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+
+		ByteBuffer header = ByteBuffer.allocate(DeltaOutput.HEADER_SIZE);
+
+		while (header.hasRemaining() && this.channel.read(header) >= 0);
+
+		if (header.hasRemaining()) {
+			throw new EOFException("Truncated header in " + file);
+		}
+
+		header.flip();
+
+		if (header.getInt() != DeltaOutput.MAGIC) {
+			throw new IOException(file + " is not a delta encoded video");
+		}
+
+		int version = header.getInt();
+
+		if (version != DeltaOutput.VERSION) {
+			throw new IOException("Unsupported delta encoded video version " + version);
+		}
+
+		this.width = header.getInt();
+		this.height = header.getInt();
+		this.channels = header.getInt();
+		this.keyInterval = header.getInt();
+		long frames = header.getLong();
+		long indexOffset = header.getLong();
+
+		if (indexOffset != 0) {
+			this.frames = frames;
+			this.end = indexOffset;
+			this.index = new long[(int) frames];
+			ByteBuffer index = ByteBuffer.allocate((int) frames * 8);
+
+			for (long position = indexOffset; index.hasRemaining(); ) {
+				int read = this.channel.read(index, position);
+
+				if (read < 0) {
+					throw new EOFException("Truncated index in " + file);
+				}
+
+				position += read;
+			}
+
+			index.flip().asLongBuffer().get(this.index);
+		}
+		else {
+			// not closed properly: the frames can still be read in order, up to the end of the file
+			this.frames = -1;
+			this.end = this.channel.size();
+			this.index = null;
+		}
+
+		this.samples = new int[this.width * this.channels];
+		this.previous = new int[this.width * this.channels];
+		this.older = new int[this.width * this.channels];
+		this.output = new int[this.channels][this.width];
+		this.position = DeltaOutput.HEADER_SIZE;
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final int width;
+	private final int height;
+	private final int channels;
+	private final int keyInterval;
+	private final long frames;
+	private final long end;
+	private final long @Nullable [] index;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).limit(0);
+	// the file position of the end of the buffered bytes
+	private long position;
+	private long frame;
+
+	// the samples of the last frame decoded, and the two before it
+	private int[] samples;
+	private int[] previous;
+	private int[] older;
+	private final int[][] output;
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getChannels() {
+		return this.channels;
+	}
+
+	/**
+	 * @return the number of frames in the file, or -1 if the file was not finished and has no index.
+	 */
+	public long size() {
+		return this.frames;
+	}
+
+	/**
+	 * Decode the next frame.
+	 * @return the channels of the frame, which are overwritten by the next call; or null at the end of the file.
+	 */
+	public int @Nullable [][] next() throws IOException {
+		if (!this.decode()) {
+			return null;
+		}
+
+		final int height = this.height;
+
+		for (int ch = 0; ch < this.channels; ch++) {
+			int[] channel = this.output[ch];
+
+			for (int x = 0, i = ch * this.width; x < this.width; x++, i++) {
+				channel[x] = height - this.samples[i] - 1;
+			}
+		}
+
+		return this.output;
+	}
+
+	/**
+	 * Move to the given frame, so that it is returned by the next call to {@link #next()}. Decodes every frame from the
+	 * key frame before it.
+	 * @param frame the index of the frame, starting at 0.
+	 */
+	public void seek(long frame) throws IOException {
+		if (this.index == null) {
+			throw new IOException("Cannot seek in a delta encoded video with no index");
+		}
+
+		if (frame < 0 || frame > this.frames) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " out of range for " + this.frames + " frames");
+		}
+
+		// carry on from here if it is quicker than going back to the key frame
+		long key = frame / this.keyInterval * this.keyInterval;
+
+		if (frame < this.frame || key > this.frame) {
+			this.frame = key;
+			this.position = key == this.frames ? this.end : this.index[(int) key];
+			this.buffer.limit(0);
+		}
+
+		while (this.frame < frame) {
+			this.decode();
+		}
+	}
+
+	/**
+	 * Decode the next frame into {@link #samples}, keeping the frames before it.
+	 * @return false at the end of the file.
+	 */
+	private boolean decode() throws IOException {
+		if (this.position - this.buffer.remaining() >= this.end) {
+			return false;
+		}
+
+		// decode into the oldest frame's array
+		final int[] samples = this.older;
+		final int type = this.readByte();
+
+		switch (type) {
+		case DeltaOutput.KEY_FRAME -> Arrays.fill(samples, 0);
+		case DeltaOutput.DELTA_FRAME -> System.arraycopy(this.samples, 0, samples, 0, samples.length);
+		case DeltaOutput.DELTA_FRAME_2 -> System.arraycopy(this.previous, 0, samples, 0, samples.length);
+		default -> throw new IOException("Corrupt frame " + this.frame + ": unknown frame type " + type);
+		}
+
+		int i = 0;
+
+		while (i < samples.length) {
+			long token = this.readVarint();
+			int count = (int) (token >>> 1);
+
+			if (i + count > samples.length) {
+				throw new IOException("Corrupt frame " + this.frame + ": run past the end of the frame");
+			}
+
+			if ((token & 1) == 0) {
+				i += count;
+			}
+			else {
+				for (int end = i + count; i < end; i++) {
+					int zigzag = (int) this.readVarint();
+					samples[i] += (zigzag >>> 1) ^ -(zigzag & 1);
+				}
+			}
+		}
+
+		this.older = this.previous;
+		this.previous = this.samples;
+		this.samples = samples;
+		this.frame++;
+		return true;
+	}
+
+	private int readByte() throws IOException {
+		if (!this.buffer.hasRemaining()) {
+			this.buffer.clear();
+
+			if (this.position < this.end) {
+				this.buffer.limit((int) Math.min(this.buffer.capacity(), this.end - this.position));
+
+				while (this.buffer.hasRemaining()) {
+					int read = this.channel.read(this.buffer, this.position);
+
+					if (read < 0) {
+						break;
+					}
+
+					this.position += read;
+				}
+			}
+
+			this.buffer.flip();
+
+			if (!this.buffer.hasRemaining()) {
+				throw new EOFException("Unexpected end of delta encoded video in frame " + this.frame);
+			}
+		}
+
+		return this.buffer.get() & 0xFF;
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = this.readByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Corrupt varint in frame " + this.frame);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
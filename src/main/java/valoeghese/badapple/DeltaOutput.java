@@ -0,0 +1,240 @@
+package valoeghese.badapple;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes frames compactly, storing each sample as the change from the same sample in one of the two previous frames,
+ * with runs of unchanged samples collapsed. Referring back two frames suits modes which alternate between two sets of
+ * edges. Every few frames is a key frame stored against zero instead, and an index of where each frame starts is
+ * appended on close, so {@link DeltaDecoder} can seek to any frame by decoding at most one key interval.
+ *
+ * <p>The file is big-endian. After the header below, each frame is a type byte ({@link #KEY_FRAME}, {@link #DELTA_FRAME}
+ * or {@link #DELTA_FRAME_2}) followed by tokens covering every sample of the frame, channel by channel and column by column.
+ * A token is an unsigned LEB128 varint {@code n << 1 | literal}: if {@code literal} is 0, the next {@code n} samples are
+ * unchanged; otherwise {@code n} zigzag varint deltas follow. Samples are {@code height - y - 1}, as in {@link Bits8Output}.
+ * The index is one long per frame giving the offset of the frame in the file.</p>
+ */
+public final class DeltaOutput extends VideoOutput {
+	public DeltaOutput(Path file, int width, int height) throws IOException {
+		this(file, width, height, 60);
+	}
+
+	/**
+	 * @param keyInterval the number of frames from one key frame to the next.
+	 */
+	public DeltaOutput(Path file, int width, int height, int keyInterval) throws IOException {
+		super(width, height);
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.keyInterval = keyInterval;
+		// filled in once the number of channels is known, and again on close
+		this.header(0, 0);
+		this.flush();
+	}
+
+	static final int MAGIC = 0x42414444; // BADD
+	static final int VERSION = 1;
+	// magic, version, width, height, channels, key interval, frame count, index offset
+	static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 4 + 8 + 8;
+	static final int KEY_FRAME = 0;
+	static final int DELTA_FRAME = 1;
+	/**
+	 * A frame stored against the frame two before it.
+	 */
+	static final int DELTA_FRAME_2 = 2;
+
+	// aim for about this many bytes per write
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final int keyInterval;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private long position;
+
+	private int channels;
+	private int[] previous;
+	private int[] older;
+	private int[] current;
+	private long frames;
+	private long[] index = new long[1024];
+
+	@Override
+	public void writeFrame(int[] ...channels) throws IOException {
+		final int width = this.getWidth();
+
+		if (this.current == null) {
+			this.channels = channels.length;
+			this.previous = new int[width * channels.length];
+			this.older = new int[width * channels.length];
+			this.current = new int[width * channels.length];
+			// filled in on close
+			this.rewriteHeader(0, 0);
+		}
+		else if (channels.length != this.channels) {
+			throw new IllegalArgumentException("Expected " + this.channels + " channels, got " + channels.length);
+		}
+
+		final int height = this.getHeight();
+		final int[] current = this.current;
+
+		for (int ch = 0; ch < channels.length; ch++) {
+			for (int x = 0, i = ch * width; x < width; x++, i++) {
+				current[i] = height - channels[ch][x] - 1;
+			}
+		}
+
+		if (this.frames == this.index.length) {
+			this.index = Arrays.copyOf(this.index, this.index.length * 2);
+		}
+
+		this.index[(int) this.frames] = this.position + this.buffer.position();
+		final long sinceKey = this.frames % this.keyInterval;
+		final int type;
+		int[] reference;
+
+		if (sinceKey == 0) {
+			type = KEY_FRAME;
+			// a key frame is a delta against an all zero frame; the oldest frame is never referred to across a key frame
+			reference = this.older;
+			Arrays.fill(reference, 0);
+		}
+		else if (sinceKey >= 2 && unchanged(this.older, current) > unchanged(this.previous, current)) {
+			type = DELTA_FRAME_2;
+			reference = this.older;
+		}
+		else {
+			type = DELTA_FRAME;
+			reference = this.previous;
+		}
+
+		this.ensure(1);
+		this.buffer.put((byte) type);
+		this.encode(reference, current);
+
+		// the current frame becomes the previous one, and the oldest frame's array is reused
+		this.current = this.older;
+		this.older = this.previous;
+		this.previous = current;
+		this.frames++;
+	}
+
+	private static int unchanged(int[] reference, int[] current) {
+		int unchanged = 0;
+
+		for (int i = 0; i < current.length; i++) {
+			if (reference[i] == current[i]) {
+				unchanged++;
+			}
+		}
+
+		return unchanged;
+	}
+
+	private void encode(int[] previous, int[] current) throws IOException {
+		final int length = current.length;
+		int i = 0;
+
+		while (i < length) {
+			int start = i;
+
+			while (i < length && current[i] == previous[i]) {
+				i++;
+			}
+
+			if (i > start) {
+				this.varint((long) (i - start) << 1);
+				continue;
+			}
+
+			// a literal run lasts until two unchanged samples in a row, since a single one is cheaper inline
+			while (i < length && (current[i] != previous[i] || (i + 1 < length && current[i + 1] != previous[i + 1]))) {
+				i++;
+			}
+
+			this.varint((long) (i - start) << 1 | 1);
+
+			for (int n = start; n < i; n++) {
+				int delta = current[n] - previous[n];
+				this.varint((delta << 1) ^ (delta >> 31));
+			}
+		}
+	}
+
+	private void varint(long value) throws IOException {
+		this.ensure(10);
+
+		while ((value & ~0x7FL) != 0) {
+			this.buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		this.buffer.put((byte) value);
+	}
+
+	private void varint(int value) throws IOException {
+		this.varint(value & 0xFFFFFFFFL);
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (this.buffer.remaining() < bytes) {
+			this.flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		this.buffer.flip();
+
+		while (this.buffer.hasRemaining()) {
+			this.position += this.channel.write(this.buffer);
+		}
+
+		this.buffer.clear();
+	}
+
+	private void header(long frames, long indexOffset) {
+		this.buffer.putInt(MAGIC).putInt(VERSION).putInt(this.getWidth()).putInt(this.getHeight()).putInt(this.channels)
+				.putInt(this.keyInterval).putLong(frames).putLong(indexOffset);
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return this.position + this.buffer.position();
+	}
+
+	/**
+	 * Write the header over the start of the file. Only called with nothing buffered.
+	 */
+	private void rewriteHeader(long frames, long indexOffset) throws IOException {
+		this.header(frames, indexOffset);
+		this.buffer.flip();
+
+		for (long position = 0; this.buffer.hasRemaining(); ) {
+			position += this.channel.write(this.buffer, position);
+		}
+
+		this.buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			final long indexOffset = this.position + this.buffer.position();
+
+			for (int n = 0; n < this.frames; n++) {
+				this.ensure(8);
+				this.buffer.putLong(this.index[n]);
+			}
+
+			this.flush();
+
+			// go back and fill in the frame count and where the index is
+			this.rewriteHeader(this.frames, indexOffset);
+		} finally {
+			this.channel.close();
+		}
+	}
+}
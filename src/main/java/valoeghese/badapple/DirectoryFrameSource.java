@@ -0,0 +1,53 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads the numbered frames in a directory in natural filename order (see {@link FrameSource#frames}).
+ */
+public final class DirectoryFrameSource implements FrameSource {
+	public DirectoryFrameSource(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			List<String> images = files
+					.filter(path -> FrameSource.isImage(path.getFileName().toString()) && Files.isRegularFile(path))
+					.map(path -> path.getFileName().toString())
+					.toList();
+			this.files = FrameSource.frames(images).stream().map(directory::resolve).toList();
+		}
+	}
+
+	private final List<Path> files;
+	private int position;
+
+	@Override
+	public long size() {
+		return this.files.size();
+	}
+
+	@Override
+	public @Nullable SourceFrame next() throws IOException {
+		if (this.position == this.files.size()) {
+			return null;
+		}
+
+		Path file = this.files.get(this.position++);
+		return SourceFrame.image(file.getFileName().toString(), Files.readAllBytes(file));
+	}
+
+	@Override
+	public int skip(int frames) {
+		int skipped = Math.min(frames, this.files.size() - this.position);
+		this.position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,433 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+
+/**
+ * Finds the upper and lower edges of each output column of a {@link GreyFrame}.
+ * The sampled input columns are first copied into a transposed buffer so each column scan reads contiguous memory.
+ * Where the Vector API is available, {@code VectorEdgeDetector} can be used instead to scan many columns at once.
+ * With {@link Sampling#AREA}, each output column instead averages all the input columns it covers, and edges are placed
+ * between rows by interpolation.
+ */
+public final class EdgeDetector {
+	private EdgeDetector() {
+	}
+
+	// per-thread scratch space for the transposed columns and the source column of each output column
+	private static final ThreadLocal<byte[]> COLUMNS = ThreadLocal.withInitial(() -> new byte[0]);
+	private static final ThreadLocal<int[]> SOURCE_X = ThreadLocal.withInitial(() -> new int[0]);
+
+	// prefix sums of a row, and the span of input columns each output column covers, for area sampling
+	private static final ThreadLocal<int[]> ROW_SUMS = ThreadLocal.withInitial(() -> new int[0]);
+	private static final ThreadLocal<int[]> SPANS = ThreadLocal.withInitial(() -> new int[0]);
+
+	// the Vector API detector, if in use
+	private static volatile @Nullable VectorEngine vector;
+
+	/**
+	 * How the input pixels read by each output column are chosen.
+	 */
+	public enum Sampling {
+		/**
+		 * Read the one input column at the left of each output column, and place edges on the input row they are found on.
+		 */
+		NEAREST,
+		/**
+		 * Average every input column an output column covers, weighted by how much of it is covered, and place edges where
+		 * the averaged level crosses the cutoff between two rows. Detail between sampled columns is kept, and edges move
+		 * smoothly rather than jumping between rows, so traces jitter less when downscaling.
+		 */
+		AREA
+	}
+
+	/**
+	 * Choose whether to detect edges with {@code VectorEdgeDetector}. It is only used if the JVM was started with
+	 * {@code --add-modules jdk.incubator.vector} and its vectors hold at least 4 ints; otherwise the scalar code is used.
+	 * @return whether edges will be detected with the Vector API.
+	 */
+	public static boolean useVector(boolean use) {
+		VectorEngine engine = null;
+
+		if (use && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				engine = (VectorEngine) Class.forName("valoeghese.badapple.VectorEdgeDetector").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// built without the vector source folder
+			}
+		}
+
+		vector = engine != null && engine.lanes() >= 4 ? engine : null;
+		return vector != null;
+	}
+
+	/**
+	 * @return the number of columns the Vector API scans at once, or 1 if it is not in use.
+	 */
+	public static int vectorLanes() {
+		VectorEngine engine = vector;
+		return engine != null ? engine.lanes() : 1;
+	}
+
+	/**
+	 * Detect the edges of a frame.
+	 * @param frame the frame to scan.
+	 * @param width the output width, i.e. the number of columns to sample.
+	 * @param height the output height which edge positions are scaled to.
+	 * @param threshold the threshold the frame's levels were extracted with.
+	 * @param skip the number of edges to pass over before the one which is recorded.
+	 * @param spike whether to replace the first column with a spike for triggering the oscilloscope.
+	 * @return the lower and upper edges for each column. Columns without enough edges are locked to the bottom.
+	 */
+	public static EdgeResult detect(GreyFrame frame, int width, int height, ThresholdStrategy threshold, int skip, boolean spike) {
+		return detectAll(frame, width, height, threshold, skip + 1, spike)[skip];
+	}
+
+	/**
+	 * Detect the first few edges of a frame, walking each column once from the bottom and once from the top.
+	 * @param edges the number of edges to find from each side.
+	 * @return an array of length {@code edges}, where element n is the result {@link #detect} gives with {@code skip = n}.
+	 */
+	public static EdgeResult[] detectAll(GreyFrame frame, int width, int height, ThresholdStrategy threshold, int edges, boolean spike) {
+		EdgeResult[] results = new EdgeResult[edges];
+
+		for (int n = 0; n < edges; n++) {
+			results[n] = new EdgeResult(new int[width], new int[width]);
+		}
+
+		return detectAll(frame, width, height, threshold, edges, spike, results);
+	}
+
+	/**
+	 * Detect the first few edges of a frame into existing arrays.
+	 * @param results the results to fill, of which the first {@code edges} must have arrays of at least {@code width}.
+	 * @return {@code results}
+	 */
+	public static EdgeResult[] detectAll(GreyFrame frame, int width, int height, ThresholdStrategy threshold, int edges, boolean spike, EdgeResult[] results) {
+		return detectAll(frame, width, height, threshold, edges, spike, results, Sampling.NEAREST);
+	}
+
+	/**
+	 * Detect the first few edges of a frame into existing arrays, sampling the frame as given.
+	 * Area sampling always uses the scalar code.
+	 */
+	public static EdgeResult[] detectAll(GreyFrame frame, int width, int height, ThresholdStrategy threshold, int edges, boolean spike, EdgeResult[] results, Sampling sampling) {
+		if (sampling == Sampling.AREA) {
+			return detectArea(frame, width, height, threshold, edges, spike, results);
+		}
+
+		return detectNearest(frame, null, width, height, threshold, edges, spike, results);
+	}
+
+	/**
+	 * Detect the first few edges of a frame into existing arrays with {@link Sampling#NEAREST}.
+	 * @param sampled the frame's levels as already sampled by {@link #sample}, or null to sample them here.
+	 */
+	static EdgeResult[] detectNearest(GreyFrame frame, byte @Nullable [] sampled, int width, int height, ThresholdStrategy threshold, int edges, boolean spike, EdgeResult[] results) {
+		VectorEngine engine = vector;
+
+		if (engine != null) {
+			return engine.detectAll(frame, sampled != null ? sampled : engine.sample(frame, width),
+					width, height, frame.cutoffs(threshold), edges, spike, results);
+		}
+
+		final int inHeight = frame.getHeight();
+		final byte[] columns = sampled != null ? sampled : transpose(frame, width);
+
+		final ThresholdStrategy.Cutoffs cutoffs = frame.cutoffs(threshold);
+		final int firstCutoff = cutoffs.first();
+		final int whiteCutoff = cutoffs.white();
+		final int blackCutoff = cutoffs.black();
+		final double yConversionFactor = (double) height / inHeight;
+		// if didn't find enough edges, lock to bottom
+		final int missing = (int) (yConversionFactor * (inHeight - 1));
+
+		for (int x = 0; x < width; x++) {
+			final int base = x * inHeight;
+
+			// Lower edges
+			int found = 0;
+			boolean current = (columns[base + inHeight - 1] & 0xFF) > firstCutoff;
+
+			for (int y = inHeight - 1; y >= 0; y--) {
+				if (((columns[base + y] & 0xFF) > (current ? whiteCutoff : blackCutoff)) != current) {
+					current = !current;
+					results[found].bottom()[x] = (int) (yConversionFactor * y);
+
+					if (++found == edges) {
+						break;
+					}
+				}
+			}
+
+			for (; found < edges; found++) {
+				results[found].bottom()[x] = missing;
+			}
+
+			// Upper edges
+			found = 0;
+			current = (columns[base] & 0xFF) > firstCutoff;
+
+			for (int y = 0; y < inHeight; y++) {
+				if (((columns[base + y] & 0xFF) > (current ? whiteCutoff : blackCutoff)) != current) {
+					current = !current;
+					results[found].top()[x] = (int) (yConversionFactor * y);
+
+					if (++found == edges) {
+						break;
+					}
+				}
+			}
+
+			for (; found < edges; found++) {
+				results[found].top()[x] = missing;
+			}
+		}
+
+		// if spike, override beginning of frame with spike out put range. This is useful for aligning on the oscilliscope (trigger).
+		if (spike) {
+			for (int n = 0; n < edges; n++) {
+				results[n].bottom()[0] = -1;
+				results[n].top()[0] = -1;
+			}
+		}
+
+		return results;
+	}
+
+	private static EdgeResult[] detectArea(GreyFrame frame, int width, int height, ThresholdStrategy threshold, int edges, boolean spike, EdgeResult[] results) {
+		final int inHeight = frame.getHeight();
+		final byte[] columns = transposeArea(frame, width);
+
+		final ThresholdStrategy.Cutoffs cutoffs = frame.cutoffs(threshold);
+		final int firstCutoff = cutoffs.first();
+		final int whiteCutoff = cutoffs.white();
+		final int blackCutoff = cutoffs.black();
+		final double yConversionFactor = (double) height / inHeight;
+		// if didn't find enough edges, lock to bottom
+		final int missing = (int) (yConversionFactor * (inHeight - 1));
+
+		for (int x = 0; x < width; x++) {
+			final int base = x * inHeight;
+
+			// Lower edges
+			int found = 0;
+			int previous = columns[base + inHeight - 1] & 0xFF;
+			boolean current = previous > firstCutoff;
+
+			for (int y = inHeight - 1; y >= 0; y--) {
+				final int level = columns[base + y] & 0xFF;
+				final int cutoff = current ? whiteCutoff : blackCutoff;
+
+				if ((level > cutoff) != current) {
+					current = !current;
+					results[found].bottom()[x] = crossing(y, y + 1, previous, level, cutoff, yConversionFactor, missing);
+
+					if (++found == edges) {
+						break;
+					}
+				}
+
+				previous = level;
+			}
+
+			for (; found < edges; found++) {
+				results[found].bottom()[x] = missing;
+			}
+
+			// Upper edges
+			found = 0;
+			previous = columns[base] & 0xFF;
+			current = previous > firstCutoff;
+
+			for (int y = 0; y < inHeight; y++) {
+				final int level = columns[base + y] & 0xFF;
+				final int cutoff = current ? whiteCutoff : blackCutoff;
+
+				if ((level > cutoff) != current) {
+					current = !current;
+					results[found].top()[x] = crossing(y, y - 1, previous, level, cutoff, yConversionFactor, missing);
+
+					if (++found == edges) {
+						break;
+					}
+				}
+
+				previous = level;
+			}
+
+			for (; found < edges; found++) {
+				results[found].top()[x] = missing;
+			}
+		}
+
+		if (spike) {
+			for (int n = 0; n < edges; n++) {
+				results[n].bottom()[0] = -1;
+				results[n].top()[0] = -1;
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Place an edge found on row y, coming from the row before it, where the level crosses the middle of the cutoff.
+	 * @return the edge position on the output, never below {@code missing}.
+	 */
+	private static int crossing(int y, int from, int previous, int level, int cutoff, double yConversionFactor, int missing) {
+		double t = level == previous ? 1.0 : Math.min(1.0, Math.max(0.0, (cutoff + 0.5 - previous) / (level - previous)));
+		return Math.min(missing, (int) (yConversionFactor * (from + t * (y - from))));
+	}
+
+	/**
+	 * Average the input columns covered by each output column into a column-major buffer, laid out as {@link #transpose}.
+	 * Uses a prefix sum of each row, so the cost does not depend on how many input columns an output column covers.
+	 */
+	static byte[] transposeArea(GreyFrame frame, int width) {
+		final int inWidth = frame.getWidth();
+		final int inHeight = frame.getHeight();
+		final byte[] levels = frame.getLevels();
+
+		byte[] columns = COLUMNS.get();
+
+		if (columns.length < width * inHeight) {
+			columns = new byte[width * inHeight];
+			COLUMNS.set(columns);
+		}
+
+		// one past the end, so the column after any boundary can be read without a check
+		int[] sums = ROW_SUMS.get();
+
+		if (sums.length < inWidth + 2) {
+			sums = new int[inWidth + 2];
+			ROW_SUMS.set(sums);
+		}
+
+		// positions are measured in 1/width of an input column, so output column x covers [x * inWidth, (x + 1) * inWidth)
+		// exactly: each boundary is stored as the input column it falls in and how far into that column it is
+		int[] spans = SPANS.get();
+
+		if (spans.length < 2 * (width + 1)) {
+			spans = new int[2 * (width + 1)];
+			SPANS.set(spans);
+		}
+
+		for (int x = 0; x <= width; x++) {
+			long position = (long) x * inWidth;
+			spans[2 * x] = (int) (position / width);
+			spans[2 * x + 1] = (int) (position % width);
+		}
+
+		// each output column covers inWidth / width input columns, so dividing by inWidth gives the mean level
+		final double scale = 1.0 / inWidth;
+
+		for (int y = 0; y < inHeight; y++) {
+			final int row = y * inWidth;
+
+			int sum = 0;
+
+			for (int i = 0; i < inWidth; i++) {
+				sum += levels[row + i] & 0xFF;
+				sums[i + 1] = sum;
+			}
+
+			sums[inWidth + 1] = sum;
+
+			// the sum of levels up to the left of column x, in units of 1/width
+			long left = 0;
+
+			for (int x = 0; x < width; x++) {
+				final int column = spans[2 * x + 2];
+				final int fraction = spans[2 * x + 3];
+				final long right = (long) sums[column] * width + (long) fraction * (sums[column + 1] - sums[column]);
+
+				columns[x * inHeight + y] = (byte) (int) ((right - left) * scale + 0.5);
+				left = right;
+			}
+		}
+
+		return columns;
+	}
+
+	/**
+	 * Sample the input columns read by each output column with {@link Sampling#NEAREST}, laid out as the detector in use
+	 * scans them: by {@link #transpose}, or row by row for {@code VectorEdgeDetector}. Either way the buffer holds
+	 * {@code width * frame.getHeight()} levels, in per-thread scratch space which the thread's next frame overwrites.
+	 */
+	static byte[] sample(GreyFrame frame, int width) {
+		VectorEngine engine = vector;
+		return engine != null ? engine.sample(frame, width) : transpose(frame, width);
+	}
+
+	/**
+	 * Copy the input columns sampled by each output column into a column-major buffer.
+	 * Output column x occupies indices {@code [x * frame.getHeight(), (x + 1) * frame.getHeight())}.
+	 */
+	static byte[] transpose(GreyFrame frame, int width) {
+		final int inWidth = frame.getWidth();
+		final int inHeight = frame.getHeight();
+		final byte[] levels = frame.getLevels();
+
+		byte[] columns = COLUMNS.get();
+
+		if (columns.length < width * inHeight) {
+			columns = new byte[width * inHeight];
+			COLUMNS.set(columns);
+		}
+
+		final int[] sourceX = sourceColumns(inWidth, width);
+
+		// walk the source row by row so reads stay sequential
+		for (int y = 0; y < inHeight; y++) {
+			final int row = y * inWidth;
+
+			for (int x = 0; x < width; x++) {
+				columns[x * inHeight + y] = levels[row + sourceX[x]];
+			}
+		}
+
+		return columns;
+	}
+
+	/**
+	 * @return the input column sampled by each output column, in a per-thread array of at least {@code width}.
+	 */
+	static int[] sourceColumns(int inWidth, int width) {
+		final double xConversionFactor = (double) inWidth / width;
+		int[] sourceX = SOURCE_X.get();
+
+		if (sourceX.length < width) {
+			sourceX = new int[width];
+			SOURCE_X.set(sourceX);
+		}
+
+		for (int x = 0; x < width; x++) {
+			sourceX[x] = (int) (xConversionFactor * x);
+		}
+
+		return sourceX;
+	}
+
+	/**
+	 * Scans many columns at once with the incubating Vector API. Implemented by {@code VectorEdgeDetector}, which is
+	 * compiled on its own with {@code --add-modules jdk.incubator.vector}, so it is loaded by name.
+	 */
+	interface VectorEngine {
+		/**
+		 * @return the number of columns scanned at once.
+		 */
+		int lanes();
+
+		/**
+		 * Copy the input columns sampled by each output column into a per-thread buffer, laid out for {@link #detectAll}.
+		 */
+		byte[] sample(GreyFrame frame, int width);
+
+		/**
+		 * Find the same edges as {@link EdgeDetector#detectAll}.
+		 * @param rows the frame's levels as sampled by {@link #sample}.
+		 */
+		EdgeResult[] detectAll(GreyFrame frame, byte[] rows, int width, int height, ThresholdStrategy.Cutoffs cutoffs, int edges, boolean spike, EdgeResult[] results);
+	}
+}
@@ -0,0 +1,206 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the decoded levels of every frame of a source so that later runs can skip image decoding.
+ * A cache file holds a small header followed by the frames back to back, as read by {@link RawFrameSource}.
+ * Cache files are named after the source's size, modification time and the threshold (for a folder, the names, sizes
+ * and modification times of the images in it; for raw frames, also the frame size), so a changed source is never read
+ * from a stale cache.
+ */
+public final class FrameCache implements Closeable {
+	private FrameCache(Path file, Path partial, FileChannel channel) {
+		this.file = file;
+		this.partial = partial;
+		this.channel = channel;
+	}
+
+	private static final int MAGIC = 0x42414643; // BAFC
+	private static final int VERSION = 1;
+	// magic, version, width, height, frame count
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+	private final Path file;
+	private final Path partial;
+	private final FileChannel channel;
+	private int width;
+	private int height;
+	private boolean committed;
+
+	/**
+	 * Open the cached frames of a source, if a complete cache for it exists.
+	 * @return a frame source over the cache, or null if the source has not been cached with this threshold.
+	 */
+	public static @Nullable FrameSource open(Path directory, Path source, int frameWidth, int frameHeight, ThresholdStrategy threshold) throws IOException {
+		Path file = cacheFile(directory, source, frameWidth, frameHeight, threshold);
+
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (header.hasRemaining() && channel.read(header) >= 0);
+
+			if (header.hasRemaining()) {
+				return null;
+			}
+
+			header.flip();
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				return null;
+			}
+
+			int width = header.getInt();
+			int height = header.getInt();
+			long frames = header.getLong();
+
+			if (channel.size() != HEADER_SIZE + frames * width * height) {
+				return null;
+			}
+
+			// the cache holds levels, which must not go through the threshold again
+			return new RawFrameSource(file, width, height, HEADER_SIZE, true);
+		}
+	}
+
+	/**
+	 * Start writing a new cache for a source. Frames are written to a partial file which only replaces the cache once
+	 * {@link #commit(long)} is called.
+	 */
+	public static FrameCache create(Path directory, Path source, int frameWidth, int frameHeight, ThresholdStrategy threshold) throws IOException {
+		Files.createDirectories(directory);
+		Path file = cacheFile(directory, source, frameWidth, frameHeight, threshold);
+		Path partial = file.resolveSibling(file.getFileName() + ".part");
+		FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+		return new FrameCache(file, partial, channel);
+	}
+
+	/**
+	 * @param frameWidth the width of each frame of a raw source, as given to {@link FrameSource#open}.
+	 * @param frameHeight the height of each frame of a raw source, as given to {@link FrameSource#open}.
+	 */
+	public static Path cacheFile(Path directory, Path source, int frameWidth, int frameHeight, ThresholdStrategy threshold) throws IOException {
+		String fileName = source.getFileName().toString();
+		String name = fileName.replaceAll("[^A-Za-z0-9._-]", "_");
+		String key;
+
+		if (Files.isDirectory(source)) {
+			// a folder's own size and time do not change when a frame in it is replaced
+			key = listingKey(source);
+		}
+		else {
+			key = Files.size(source) + "-" + Files.getLastModifiedTime(source).toMillis();
+
+			// the same raw file split into frames of another size is another source
+			if (!fileName.toLowerCase().endsWith(".zip")) {
+				key += "-" + frameWidth + "x" + frameHeight;
+			}
+		}
+
+		return directory.resolve(name + "-" + key + "-" + threshold.id() + ".frames");
+	}
+
+	/**
+	 * @return the number of images in a folder and a hash of their names, sizes and modification times.
+	 */
+	private static String listingKey(Path source) throws IOException {
+		List<Path> images;
+
+		try (Stream<Path> files = Files.list(source)) {
+			images = files
+					.filter(path -> FrameSource.isImage(path.getFileName().toString()) && Files.isRegularFile(path))
+					.sorted()
+					.toList();
+		}
+
+		CRC32 crc = new CRC32();
+		ByteBuffer attributes = ByteBuffer.allocate(16);
+
+		for (Path image : images) {
+			crc.update(image.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+			attributes.clear();
+			attributes.putLong(Files.size(image)).putLong(Files.getLastModifiedTime(image).toMillis()).flip();
+			crc.update(attributes);
+		}
+
+		return images.size() + "-" + Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Write the levels of a frame to the cache. Safe to call from multiple threads, in any order.
+	 * @param index the index of the frame in the source, starting at 0.
+	 */
+	public void put(long index, GreyFrame frame) throws IOException {
+		synchronized (this) {
+			if (this.width == 0) {
+				this.width = frame.getWidth();
+				this.height = frame.getHeight();
+			}
+			else if (this.width != frame.getWidth() || this.height != frame.getHeight()) {
+				throw new IOException("Cannot cache frames of different sizes (" + frame.getWidth() + "x" + frame.getHeight() + ", expected " + this.width + "x" + this.height + ")");
+			}
+		}
+
+		final int frameSize = this.width * this.height;
+		ByteBuffer buffer = ByteBuffer.wrap(frame.getLevels(), 0, frameSize);
+		long position = HEADER_SIZE + index * frameSize;
+
+		while (buffer.hasRemaining()) {
+			position += this.channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Finish the cache, making it visible to {@link #open}.
+	 * @param frames the number of frames that were written with {@link #put}.
+	 */
+	public void commit(long frames) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(this.width).putInt(this.height).putLong(frames).flip();
+
+		long position = 0;
+
+		while (header.hasRemaining()) {
+			position += this.channel.write(header, position);
+		}
+
+		this.channel.truncate(HEADER_SIZE + frames * this.width * this.height);
+		this.channel.force(false);
+		this.channel.close();
+
+		Files.move(this.partial, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.committed = true;
+	}
+
+	public Path getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Close the cache, discarding it if it was never committed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.committed) {
+			this.channel.close();
+			Files.deleteIfExists(this.partial);
+		}
+	}
+}
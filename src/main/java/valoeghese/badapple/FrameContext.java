@@ -0,0 +1,108 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+
+import java.io.IOException;
+
+/**
+ * The buffers needed to process one frame, kept from frame to frame so the conversion loop does not allocate.
+ * A context is only used by one thread at a time, and the channels it returns stay valid until it is reused.
+ */
+public final class FrameContext {
+	public FrameContext(int width, ModeStrategy mode) {
+		this(width, mode, null);
+	}
+
+	/**
+	 * @param metrics where to record the time spent in each step of processing, or null to not record it.
+	 */
+	public FrameContext(int width, ModeStrategy mode, @Nullable Metrics metrics) {
+		this(width, mode, EdgeDetector.Sampling.NEAREST, metrics);
+	}
+
+	/**
+	 * @param sampling how to sample the frame when detecting edges.
+	 */
+	public FrameContext(int width, ModeStrategy mode, EdgeDetector.Sampling sampling, @Nullable Metrics metrics) {
+		this.width = width;
+		this.sampling = sampling;
+		this.metrics = metrics;
+		this.edges = new EdgeResult[mode.edges()];
+
+		for (int n = 0; n < this.edges.length; n++) {
+			this.edges[n] = new EdgeResult(new int[width], new int[width]);
+		}
+
+		this.channels = new int[mode.channels()][];
+		this.output = new int[mode.channels()][width];
+	}
+
+	private final int width;
+	final EdgeDetector.Sampling sampling;
+	final @Nullable Metrics metrics;
+
+	/**
+	 * The array the last frame's levels were decoded into, to decode the next one into.
+	 */
+	byte @Nullable [] levels;
+	/**
+	 * Detected edges, filled by {@link EdgeDetector#detectAll(GreyFrame, int, int, ThresholdStrategy, int, boolean, EdgeResult[])}.
+	 */
+	final EdgeResult[] edges;
+	/**
+	 * The channels of the frame, pointing into {@link #edges} or {@link #output}.
+	 */
+	final int[][] channels;
+	/**
+	 * Channel arrays owned by this context, for results which do not come straight from edge detection.
+	 */
+	final int[][] output;
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Decode a frame into this context's level array.
+	 */
+	public GreyFrame decode(SourceFrame frame, ThresholdStrategy threshold) throws IOException {
+		GreyFrame decoded = frame.decode(threshold, this.levels);
+		this.levels = decoded.getLevels();
+		return decoded;
+	}
+
+	/**
+	 * Point the channels at the given arrays.
+	 * @return the channels.
+	 */
+	public int[][] channels(int[] ch1, int[] ch2) {
+		this.channels[0] = ch1;
+		this.channels[1] = ch2;
+		return this.channels;
+	}
+
+	public int[][] channels(int[] ch1, int[] ch2, int[] ch3) {
+		this.channels[0] = ch1;
+		this.channels[1] = ch2;
+		this.channels[2] = ch3;
+		return this.channels;
+	}
+
+	public int[][] channels(int[] ch1, int[] ch2, int[] ch3, int[] ch4) {
+		this.channels[0] = ch1;
+		this.channels[1] = ch2;
+		this.channels[2] = ch3;
+		this.channels[3] = ch4;
+		return this.channels;
+	}
+
+	/**
+	 * Point the channels at this context's own arrays.
+	 * @return the channels, ready to be filled.
+	 */
+	public int[][] output() {
+		System.arraycopy(this.output, 0, this.channels, 0, this.channels.length);
+		return this.channels;
+	}
+}
@@ -0,0 +1,192 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the channels computed for recent frames so that repeated frames skip edge detection.
+ * With {@link EdgeDetector.Sampling#NEAREST}, frames are compared by which side of each threshold cutoff every sampled
+ * pixel falls on, which is exactly the information edge detection uses. Frames that only differ by noise between cutoffs
+ * therefore share a result, and a hit always gives the same output as recomputing the frame. The pixels are sampled as
+ * detection samples them, and a miss detects edges from the same samples, so the frame is only sampled once.
+ * Area sampling places edges using the levels themselves, so with it frames only share a result if all their levels are
+ * equal.
+ */
+public final class FrameMemo {
+	public FrameMemo(int width, ThresholdStrategy threshold, int capacity) {
+		this(width, threshold, capacity, EdgeDetector.Sampling.NEAREST);
+	}
+
+	/**
+	 * @param sampling the sampling edges are detected with.
+	 */
+	public FrameMemo(int width, ThresholdStrategy threshold, int capacity, EdgeDetector.Sampling sampling) {
+		this.width = width;
+		this.threshold = threshold;
+		this.sampling = sampling;
+		this.entries = new Entry[capacity];
+
+		for (int n = 0; n < capacity; n++) {
+			this.entries[n] = new Entry();
+		}
+	}
+
+	// with area sampling, hash every this many levels; prime, so the sampled pixels do not line up in columns
+	private static final int HASH_STRIDE = 61;
+
+	private final int width;
+	private final ThresholdStrategy threshold;
+	private final EdgeDetector.Sampling sampling;
+	// results are copied in and out of these, so entries are reused rather than reallocated
+	private final Entry[] entries;
+	private long clock;
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+
+	private static final ThreadLocal<byte[]> CLASSES = ThreadLocal.withInitial(() -> new byte[0]);
+
+	/**
+	 * Compute the memo key of a frame.
+	 * @param parity a value which must also match for two frames to share a result, e.g. the frame parity for modes
+	 *               which alternate between frames.
+	 */
+	public Key key(GreyFrame frame, int parity) {
+		final int inWidth = frame.getWidth();
+		final int inHeight = frame.getHeight();
+		int hash = 31 * inWidth + inHeight;
+
+		if (this.sampling == EdgeDetector.Sampling.AREA) {
+			final byte[] levels = frame.getLevels();
+			final int length = inWidth * inHeight;
+
+			for (int i = 0; i < length; i += HASH_STRIDE) {
+				hash = 31 * hash + levels[i];
+			}
+
+			return new Key(((long) hash << 32) | (parity & 0xFFFFFFFFL), inWidth, inHeight, levels, length, null);
+		}
+
+		final byte[] sampled = EdgeDetector.sample(frame, this.width);
+		final int length = this.width * inHeight;
+		final ThresholdStrategy.Cutoffs cutoffs = frame.cutoffs(this.threshold);
+		final int firstCutoff = cutoffs.first();
+		final int whiteCutoff = cutoffs.white();
+		final int blackCutoff = cutoffs.black();
+
+		byte[] classes = CLASSES.get();
+
+		if (classes.length < length) {
+			classes = new byte[length];
+			CLASSES.set(classes);
+		}
+
+		for (int i = 0; i < length; i++) {
+			int level = sampled[i] & 0xFF;
+			// which cutoffs this level is above, which means the same whatever order the frame's cutoffs are in
+			int c = (level > firstCutoff ? 1 : 0) | (level > whiteCutoff ? 2 : 0) | (level > blackCutoff ? 4 : 0);
+			classes[i] = (byte) c;
+			hash = 31 * hash + c;
+		}
+
+		return new Key(((long) hash << 32) | (parity & 0xFFFFFFFFL), inWidth, inHeight, classes, length, sampled);
+	}
+
+	/**
+	 * Look up the channels stored for an identical frame, copying them into the context's own arrays.
+	 * @return the channels, or null if no identical frame is remembered.
+	 */
+	public @Nullable int[][] get(Key key, FrameContext context) {
+		this.lookups.incrementAndGet();
+
+		synchronized (this.entries) {
+			for (Entry entry : this.entries) {
+				if (entry.valid && entry.hash == key.hash && entry.frameWidth == key.frameWidth && entry.frameHeight == key.frameHeight
+						&& Arrays.equals(entry.values, 0, entry.length, key.values, 0, key.length)) {
+					int[][] channels = context.output();
+
+					for (int ch = 0; ch < channels.length; ch++) {
+						System.arraycopy(entry.channels[ch], 0, channels[ch], 0, this.width);
+					}
+
+					entry.used = ++this.clock;
+					this.hits.incrementAndGet();
+					return channels;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Remember the channels computed for a frame, replacing the least recently used entry.
+	 * Must be called while the key is still valid.
+	 */
+	public void put(Key key, int[][] channels) {
+		synchronized (this.entries) {
+			Entry entry = this.entries[0];
+
+			for (Entry candidate : this.entries) {
+				if (candidate.valid && candidate.hash == key.hash) {
+					entry = candidate;
+					break;
+				}
+				else if (!candidate.valid || (entry.valid && candidate.used < entry.used)) {
+					entry = candidate;
+				}
+			}
+
+			if (entry.values.length < key.length) {
+				entry.values = new byte[key.length];
+			}
+
+			if (entry.channels.length != channels.length) {
+				entry.channels = new int[channels.length][this.width];
+			}
+
+			System.arraycopy(key.values, 0, entry.values, 0, key.length);
+
+			for (int ch = 0; ch < channels.length; ch++) {
+				System.arraycopy(channels[ch], 0, entry.channels[ch], 0, this.width);
+			}
+
+			entry.hash = key.hash;
+			entry.frameWidth = key.frameWidth;
+			entry.frameHeight = key.frameHeight;
+			entry.length = key.length;
+			entry.used = ++this.clock;
+			entry.valid = true;
+		}
+	}
+
+	public long getLookups() {
+		return this.lookups.get();
+	}
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * The key of a frame. Refers to the frame's own levels or to per-thread scratch space, so is only valid on the thread
+	 * which created it, until that thread creates another key or the frame's levels are reused.
+	 * @param values what two frames must have equal to share a result: the cutoffs each sampled level is above, or the
+	 *               levels themselves with area sampling.
+	 * @param sampled the frame's levels as sampled for {@link EdgeDetector#detectNearest}, or null with area sampling.
+	 */
+	public record Key(long hash, int frameWidth, int frameHeight, byte[] values, int length, byte @Nullable [] sampled) {
+	}
+
+	private static final class Entry {
+		boolean valid;
+		long hash;
+		long used;
+		int frameWidth;
+		int frameHeight;
+		byte[] values = new byte[0];
+		int length;
+		int[][] channels = new int[0][];
+	}
+}
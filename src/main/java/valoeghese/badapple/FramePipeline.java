@@ -0,0 +1,400 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Processes frames on a pool of worker threads and hands the results to a {@link VideoOutput} on a single writer thread.
+ * Frames are written in the exact order they were submitted, using a bounded reorder buffer so that at most {@code window}
+ * frames are in flight at once. Each slot of the buffer owns a context, usually a {@link FrameContext}, which is reused by
+ * every frame passing through that slot.
+ * Frames can pass through a {@link TraceFilter} on the writer thread, which sees them in order.
+ * Time spent waiting for a slot and writing each frame, and the depth of the buffer, are recorded in a {@link Metrics}.
+ */
+public final class FramePipeline<C> implements AutoCloseable {
+	/**
+	 * @param contexts creates the buffers for each slot, passed to every task run in that slot.
+	 */
+	public FramePipeline(VideoOutput output, int threads, int window, Supplier<? extends C> contexts, Metrics metrics) {
+		this.output = output;
+		this.metrics = metrics;
+		this.threads = threads;
+		this.window = window;
+		this.slots = new int[window][][];
+		this.contexts = new ArrayList<>(window);
+
+		for (int n = 0; n < window; n++) {
+			this.contexts.add(contexts.get());
+		}
+
+		this.permits = new Semaphore(window);
+		this.gcCountStart = gcCount();
+		this.gcMillisStart = gcMillis();
+		this.workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(() -> {
+				try {
+					r.run();
+				} finally {
+					JpegLevels.release();
+				}
+			}, "frame-worker");
+			thread.setDaemon(true);
+
+			synchronized (this.workerThreads) {
+				this.workerThreads.add(thread);
+			}
+
+			return thread;
+		});
+		this.writer = new Thread(this::writeLoop, "frame-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	private final VideoOutput output;
+	private final Metrics metrics;
+	private final int threads;
+	private final int window;
+	private final ExecutorService workers;
+	private final Thread writer;
+
+	// reorder buffer: the frame with sequence number n lives in slots[n % window] until written
+	private final int[][][] slots;
+	private final List<C> contexts;
+	private final Semaphore permits;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = this.lock.newCondition();
+	private long submitted;
+	private long written;
+	private boolean closed;
+	private boolean finished;
+	private Throwable failure;
+	private @Nullable Checkpoint checkpoint;
+	private @Nullable TraceFilter filter;
+
+	private final AtomicLong workerNanos = new AtomicLong();
+	private long writerNanos;
+
+	private final List<Thread> workerThreads = new ArrayList<>();
+	private final long gcCountStart;
+	private final long gcMillisStart;
+	private long gcCount;
+	private long gcMillis;
+	private long workerAllocatedBytes = -1;
+	private long writerAllocatedBytes = -1;
+
+	/**
+	 * Checkpoint the output as frames are written. Must be called before the first frame is submitted.
+	 * @throws IllegalArgumentException if the output cannot be resumed.
+	 */
+	public void checkpoint(Checkpoint checkpoint) {
+		if (!(this.output instanceof ResumableOutput)) {
+			throw new IllegalArgumentException(this.output.getClass().getSimpleName() + " cannot be checkpointed");
+		}
+
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Filter each frame before it is written. Frames the filter holds back are not written or checkpointed, but still
+	 * count towards {@link #getFramesWritten()}. Must be called before the first frame is submitted.
+	 */
+	public void filter(TraceFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Submit the next frame for processing. Blocks while the reorder buffer is full.
+	 * @param task the task computing the channels to write for this frame.
+	 * @throws IOException if an earlier frame failed to process or write.
+	 */
+	public void submit(FrameTask<? super C> task) throws IOException {
+		long waitStart = System.nanoTime();
+
+		try {
+			this.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the frame pipeline", e);
+		}
+
+		this.metrics.record(Metrics.Stage.SUBMIT, System.nanoTime() - waitStart);
+		this.rethrowFailure();
+		final long sequence = this.submitted++;
+		this.metrics.record(Metrics.Queue.PIPELINE, (int) (this.submitted - this.getFramesWritten()));
+
+		this.workers.execute(() -> {
+			long start = System.nanoTime();
+			int[][] channels;
+
+			try {
+				channels = task.process(this.contexts.get((int) (sequence % this.window)));
+			} catch (Throwable t) {
+				this.fail(t);
+				return;
+			}
+
+			this.workerNanos.addAndGet(System.nanoTime() - start);
+
+			this.lock.lock();
+			try {
+				this.slots[(int) (sequence % this.window)] = channels;
+				this.changed.signalAll();
+			} finally {
+				this.lock.unlock();
+			}
+		});
+	}
+
+	private void writeLoop() {
+		long allocatedStart = allocatedBytes(Thread.currentThread());
+
+		try {
+			while (true) {
+				int[][] channels;
+
+				this.lock.lock();
+				try {
+					int slot = (int) (this.written % this.window);
+
+					while (this.slots[slot] == null) {
+						if (this.failure != null || (this.closed && this.written == this.submitted)) {
+							long allocated = allocatedBytes(Thread.currentThread());
+							this.writerAllocatedBytes = allocatedStart < 0 ? -1 : allocated - allocatedStart;
+							return;
+						}
+
+						this.changed.await();
+					}
+
+					channels = this.slots[slot];
+					this.slots[slot] = null;
+				} finally {
+					this.lock.unlock();
+				}
+
+				long start = System.nanoTime();
+
+				if (this.filter != null) {
+					channels = this.filter.apply(channels);
+					long filtered = System.nanoTime();
+					this.metrics.record(Metrics.Stage.FILTER, filtered - start);
+					start = filtered;
+				}
+
+				if (channels != null) {
+					this.output.writeFrame(channels);
+					long writeNanos = System.nanoTime() - start;
+					this.writerNanos += writeNanos;
+					this.metrics.record(Metrics.Stage.WRITE, writeNanos);
+					this.metrics.record(Metrics.Queue.OUTPUT, this.output.getQueuedFrames());
+				}
+
+				this.lock.lock();
+				try {
+					this.written++;
+					this.changed.signalAll();
+				} finally {
+					this.lock.unlock();
+				}
+
+				this.permits.release();
+
+				if (this.checkpoint != null && channels != null) {
+					this.checkpoint.written((ResumableOutput) this.output, this.written);
+				}
+			}
+		} catch (Throwable t) {
+			this.fail(t);
+		}
+	}
+
+	private void fail(Throwable t) {
+		this.lock.lock();
+		try {
+			if (this.failure == null) {
+				this.failure = t;
+			}
+
+			this.changed.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+
+		// unblock any submitter waiting on a slot that will never free up
+		this.permits.release(this.window);
+	}
+
+	private void rethrowFailure() throws IOException {
+		this.lock.lock();
+		try {
+			if (this.failure != null) {
+				throw new IOException("Frame pipeline failed", this.failure);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	public int getThreads() {
+		return this.threads;
+	}
+
+	/**
+	 * @return the number of frames written to the output so far.
+	 */
+	public long getFramesWritten() {
+		this.lock.lock();
+		try {
+			return this.written;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the total time spent by all workers decoding and detecting edges, in nanoseconds.
+	 */
+	public long getWorkerNanos() {
+		return this.workerNanos.get();
+	}
+
+	/**
+	 * @return the total time spent by the writer thread inside {@link VideoOutput#writeFrame}, in nanoseconds.
+	 * Only meaningful once the pipeline has finished.
+	 */
+	public long getWriterNanos() {
+		return this.writerNanos;
+	}
+
+	/**
+	 * @return the number of garbage collections during the life of the pipeline. Only meaningful once finished.
+	 */
+	public long getGcCount() {
+		return this.gcCount;
+	}
+
+	/**
+	 * @return the time spent in garbage collection during the life of the pipeline, in milliseconds. Only meaningful once finished.
+	 */
+	public long getGcMillis() {
+		return this.gcMillis;
+	}
+
+	/**
+	 * @return the bytes allocated by the worker and writer threads, or -1 if the JVM cannot measure it. Only meaningful once finished.
+	 */
+	public long getAllocatedBytes() {
+		return this.workerAllocatedBytes < 0 || this.writerAllocatedBytes < 0 ? -1 : this.workerAllocatedBytes + this.writerAllocatedBytes;
+	}
+
+	private static long allocatedBytes(Thread thread) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		if (threads instanceof com.sun.management.ThreadMXBean allocation && allocation.isThreadAllocatedMemorySupported()
+				&& allocation.isThreadAllocatedMemoryEnabled()) {
+			return allocation.getThreadAllocatedBytes(thread.getId());
+		}
+
+		return -1;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+
+		return millis;
+	}
+
+	/**
+	 * Wait for all submitted frames to be written, then stop the worker and writer threads. No more frames can be
+	 * submitted afterwards.
+	 * @throws IOException if any frame failed to process or write.
+	 */
+	public void finish() throws IOException {
+		if (this.finished) {
+			this.rethrowFailure();
+			return;
+		}
+
+		this.finished = true;
+		this.lock.lock();
+		try {
+			this.closed = true;
+			this.changed.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the frame pipeline", e);
+		} finally {
+			// the workers are idle but still alive, so their allocation can be read before they stop
+			long allocated = 0;
+
+			synchronized (this.workerThreads) {
+				for (Thread thread : this.workerThreads) {
+					long threadAllocated = allocatedBytes(thread);
+					allocated = threadAllocated < 0 || allocated < 0 ? -1 : allocated + threadAllocated;
+				}
+			}
+
+			this.workerAllocatedBytes = allocated;
+			this.gcCount = gcCount() - this.gcCountStart;
+			this.gcMillis = gcMillis() - this.gcMillisStart;
+			this.workers.shutdownNow();
+		}
+
+		this.rethrowFailure();
+	}
+
+	/**
+	 * {@link #finish() Finish} the pipeline, if that has not been done already.
+	 * @throws IOException if any frame failed to process or write.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.finish();
+	}
+
+	/**
+	 * The work to do for one frame on a worker thread.
+	 */
+	@FunctionalInterface
+	public interface FrameTask<C> {
+		/**
+		 * @param context the buffers to process the frame with, which the returned channels may point into.
+		 * @return the channels to pass to {@link VideoOutput#writeFrame}.
+		 */
+		int[][] process(C context) throws Exception;
+	}
+}
@@ -0,0 +1,111 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A sequence of frames to convert. Frames are read in order by a single thread, but the returned {@link SourceFrame}s may
+ * be decoded on any thread.
+ */
+public interface FrameSource extends Closeable {
+	/**
+	 * Read the next frame of this source.
+	 * @return the next frame, or null if there are no frames left.
+	 * @throws IOException if an IOException occurs while reading.
+	 */
+	@Nullable
+	SourceFrame next() throws IOException;
+
+	/**
+	 * @return the total number of frames in this source, or -1 if it is not known up front.
+	 */
+	default long size() {
+		return -1;
+	}
+
+	/**
+	 * Skip over frames without decoding them.
+	 * @param frames the number of frames to skip.
+	 * @return the number of frames actually skipped, which is less than requested if the source ran out.
+	 */
+	default int skip(int frames) throws IOException {
+		for (int i = 0; i < frames; i++) {
+			if (this.next() == null) {
+				return i;
+			}
+		}
+
+		return frames;
+	}
+
+	/**
+	 * Open a frame source, choosing the backend by the type of file.
+	 * Directories are read as a folder of images and {@code .zip} files as a zip of images, both in natural filename order.
+	 * Anything else is read as raw concatenated 8-bit greyscale frames, which requires the frame size to be given.
+	 * @param path the file or directory to read.
+	 * @param frameWidth the width of each raw frame, or 0 if not given.
+	 * @param frameHeight the height of each raw frame, or 0 if not given.
+	 */
+	static FrameSource open(Path path, int frameWidth, int frameHeight) throws IOException {
+		if (Files.isDirectory(path)) {
+			return new DirectoryFrameSource(path);
+		}
+		else if (path.getFileName().toString().toLowerCase().endsWith(".zip")) {
+			return new ZipFrameSource(path);
+		}
+		else if (frameWidth > 0 && frameHeight > 0) {
+			return new RawFrameSource(path, frameWidth, frameHeight);
+		}
+		else {
+			throw new IOException("Raw frame file " + path + " requires --frame-size=WxH");
+		}
+	}
+
+	/**
+	 * Pick out the numbered frames from the names of the images in a source, in natural order. Names are numbered frames
+	 * if they end in a number before the extension, and only the most common pattern of name around that number is kept,
+	 * e.g. {@code frames/output_0001.jpg} to {@code frames/output_6572.jpg} but not {@code cover.jpg} or
+	 * {@code thumbs/small_1.jpg}.
+	 * @param names the names of every image in the source.
+	 */
+	static List<String> frames(Collection<String> names) {
+		// the name up to the frame number, the frame number, and the extension
+		Pattern numbered = Pattern.compile("(.*?)\\d+(\\.[^./]+)");
+		Map<String, List<String>> patterns = new HashMap<>();
+		List<String> sorted = new ArrayList<>(names);
+		sorted.sort(NaturalOrder.INSTANCE);
+
+		for (String name : sorted) {
+			Matcher matcher = numbered.matcher(name);
+
+			if (matcher.matches()) {
+				patterns.computeIfAbsent(matcher.group(1) + "#" + matcher.group(2), pattern -> new ArrayList<>()).add(name);
+			}
+		}
+
+		// the most frames, then the pattern whose first frame comes first
+		return patterns.values().stream()
+				.min(Comparator.<List<String>>comparingInt(List::size).reversed().thenComparing(list -> list.get(0), NaturalOrder.INSTANCE))
+				.orElse(List.of());
+	}
+
+	/**
+	 * @return whether the given file name has an extension ImageIO can be expected to decode.
+	 */
+	static boolean isImage(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png") || lower.endsWith(".bmp") || lower.endsWith(".gif");
+	}
+}
@@ -0,0 +1,76 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A frame reduced to one 8-bit level per pixel, stored row by row. The level is whatever {@link ThresholdStrategy#level(int)}
+ * extracts from the pixel's colour, so it can be thresholded without going back through the colour model.
+ */
+public final class GreyFrame {
+	public GreyFrame(int width, int height, byte[] levels) {
+		if (levels.length < width * height) {
+			throw new IllegalArgumentException("Level array too small for a " + width + "x" + height + " frame");
+		}
+
+		this.width = width;
+		this.height = height;
+		this.levels = levels;
+	}
+
+	private final int width;
+	private final int height;
+	private final byte[] levels;
+
+	// the cutoffs chosen for this frame, and the strategy which chose them
+	private ThresholdStrategy.@Nullable Cutoffs cutoffs;
+	private @Nullable ThresholdStrategy cutoffsFor;
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * @return the levels of this frame, row by row. Pixel (x, y) is at index {@code y * width + x}.
+	 */
+	public byte[] getLevels() {
+		return this.levels;
+	}
+
+	public int level(int x, int y) {
+		return this.levels[y * this.width + x] & 0xFF;
+	}
+
+	/**
+	 * @return the cutoffs the given strategy chooses for this frame, only calling it the first time.
+	 */
+	public ThresholdStrategy.Cutoffs cutoffs(ThresholdStrategy threshold) {
+		if (this.cutoffsFor != threshold) {
+			this.cutoffs = threshold.cutoffs(this);
+			this.cutoffsFor = threshold;
+		}
+
+		return this.cutoffs;
+	}
+
+	/**
+	 * Extract the levels of an image for the given threshold. The result is identical to applying
+	 * {@link ThresholdStrategy#level(int)} to {@link BufferedImage#getRGB(int, int)} for every pixel, but reads the raster directly
+	 * where the image layout allows it.
+	 */
+	public static GreyFrame of(BufferedImage image, ThresholdStrategy threshold) {
+		return of(image, threshold, null);
+	}
+
+	/**
+	 * Extract the levels of an image for the given threshold, reusing an existing array if it is large enough.
+	 */
+	public static GreyFrame of(BufferedImage image, ThresholdStrategy threshold, byte @Nullable [] reuse) {
+		return ImageLevels.extract(image, threshold, reuse);
+	}
+}
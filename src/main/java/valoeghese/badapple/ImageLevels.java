@@ -0,0 +1,98 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+/**
+ * Extracts the levels of decoded images for {@link GreyFrame#of(BufferedImage, ThresholdStrategy, byte[])}.
+ * Kept apart from {@link GreyFrame} so that frames read from raw video never load the AWT image classes.
+ */
+final class ImageLevels {
+	private ImageLevels() {
+	}
+
+	static GreyFrame extract(BufferedImage image, ThresholdStrategy threshold, byte @Nullable [] reuse) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		byte[] levels = reuse != null && reuse.length >= width * height ? reuse : new byte[width * height];
+		Raster raster = image.getRaster();
+
+		if (raster.getDataBuffer() instanceof DataBufferByte buffer && buffer.getNumBanks() == 1
+				&& raster.getSampleModel() instanceof ComponentSampleModel sampleModel
+				&& raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+			final byte[] data = buffer.getData();
+			final int offset = buffer.getOffset();
+			final int scanlineStride = sampleModel.getScanlineStride();
+			final int pixelStride = sampleModel.getPixelStride();
+			final int[] bandOffsets = sampleModel.getBandOffsets();
+
+			switch (image.getType()) {
+			case BufferedImage.TYPE_BYTE_GRAY: {
+				final byte[] lut = greyLevels(image.getColorModel(), threshold);
+
+				for (int y = 0; y < height; y++) {
+					int in = offset + y * scanlineStride + bandOffsets[0];
+					int out = y * width;
+
+					for (int x = 0; x < width; x++, in += pixelStride) {
+						levels[out + x] = lut[data[in] & 0xFF];
+					}
+				}
+
+				return new GreyFrame(width, height, levels);
+			}
+			case BufferedImage.TYPE_3BYTE_BGR: {
+				// sRGB with 8 bits per component: getRGB is exactly 0xFF << 24 | r << 16 | g << 8 | b
+				final int r = bandOffsets[0], g = bandOffsets[1], b = bandOffsets[2];
+
+				for (int y = 0; y < height; y++) {
+					int in = offset + y * scanlineStride;
+					int out = y * width;
+
+					for (int x = 0; x < width; x++, in += pixelStride) {
+						int rgb = 0xFF000000 | (data[in + r] & 0xFF) << 16 | (data[in + g] & 0xFF) << 8 | (data[in + b] & 0xFF);
+						levels[out + x] = (byte) threshold.level(rgb);
+					}
+				}
+
+				return new GreyFrame(width, height, levels);
+			}
+			}
+		}
+
+		// any other layout: let the image convert a row at a time
+		int[] row = new int[width];
+
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			int out = y * width;
+
+			for (int x = 0; x < width; x++) {
+				levels[out + x] = (byte) threshold.level(row[x]);
+			}
+		}
+
+		return new GreyFrame(width, height, levels);
+	}
+
+	/**
+	 * Map every sample of a greyscale colour model to its level once, as the colour model does a gamma conversion.
+	 * @return the level of each sample, indexed by the sample.
+	 */
+	static byte[] greyLevels(ColorModel colourModel, ThresholdStrategy threshold) {
+		byte[] lut = new byte[256];
+		byte[] sample = new byte[1];
+
+		for (int v = 0; v < 256; v++) {
+			sample[0] = (byte) v;
+			lut[v] = (byte) threshold.level(colourModel.getRGB(sample));
+		}
+
+		return lut;
+	}
+}
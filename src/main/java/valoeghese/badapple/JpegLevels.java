@@ -0,0 +1,208 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Extracts the levels of JPEG frames from the decoder's raw samples, without ImageIO converting them to RGB in a
+ * {@link BufferedImage} first. Only plain greyscale and JFIF YCbCr JPEGs are read this way, for which the levels are
+ * identical to {@link GreyFrame#of(BufferedImage, ThresholdStrategy)} on the image {@link ImageIO#read} would give.
+ */
+final class JpegLevels {
+	private JpegLevels() {
+	}
+
+	// each thread's reader, until the thread calls release()
+	private static final ThreadLocal<ImageReader> READERS = new ThreadLocal<>();
+	// the colour model ImageIO gives greyscale JPEGs
+	private static final ColorModel GREY = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+
+	// libjpeg's fixed point YCbCr to RGB conversion (jdcolor.c), so that colours come out exactly as ImageIO converts them
+	private static final int[] CR_R = new int[256];
+	private static final int[] CB_B = new int[256];
+	private static final int[] CR_G = new int[256];
+	private static final int[] CB_G = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int x = i - 128;
+			CR_R[i] = (91881 * x + 32768) >> 16;
+			CB_B[i] = (116130 * x + 32768) >> 16;
+			CR_G[i] = -46802 * x;
+			CB_G[i] = -22554 * x + 32768;
+		}
+	}
+
+	/**
+	 * Decode the samples of a JPEG, if it is one whose colours this class can convert.
+	 * @return the greyscale or YCbCr samples, or null if the frame is not a plain JPEG and should be read by ImageIO.
+	 */
+	static @Nullable Raster read(byte[] data) throws IOException {
+		if (!isPlain(data)) {
+			return null;
+		}
+
+		ImageReader reader = READERS.get();
+		Raster samples;
+
+		if (reader == null) {
+			reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+			READERS.set(reader);
+		}
+
+		try {
+			reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(data)), true, true);
+			samples = reader.readRaster(0, null);
+		} finally {
+			reader.setInput(null);
+		}
+
+		if (samples.getDataBuffer() instanceof DataBufferByte buffer && buffer.getNumBanks() == 1
+				&& samples.getSampleModel() instanceof ComponentSampleModel
+				&& samples.getSampleModelTranslateX() == 0 && samples.getSampleModelTranslateY() == 0) {
+			return samples;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Dispose the current thread's reader, if it has one. Threads which read frames call this before they exit.
+	 */
+	static void release() {
+		ImageReader reader = READERS.get();
+
+		if (reader != null) {
+			READERS.remove();
+			reader.dispose();
+		}
+	}
+
+	/**
+	 * Extract the levels of samples from {@link #read(byte[])} for the given threshold, reusing an existing array if it is large enough.
+	 */
+	static GreyFrame extract(Raster samples, ThresholdStrategy threshold, byte @Nullable [] reuse) {
+		final int width = samples.getWidth();
+		final int height = samples.getHeight();
+		byte[] levels = reuse != null && reuse.length >= width * height ? reuse : new byte[width * height];
+		final DataBufferByte buffer = (DataBufferByte) samples.getDataBuffer();
+		final ComponentSampleModel sampleModel = (ComponentSampleModel) samples.getSampleModel();
+		final byte[] data = buffer.getData();
+		final int offset = buffer.getOffset();
+		final int scanlineStride = sampleModel.getScanlineStride();
+		final int pixelStride = sampleModel.getPixelStride();
+		final int[] bandOffsets = sampleModel.getBandOffsets();
+
+		if (samples.getNumBands() == 1) {
+			final byte[] lut = ImageLevels.greyLevels(GREY, threshold);
+
+			for (int y = 0; y < height; y++) {
+				int in = offset + y * scanlineStride + bandOffsets[0];
+				int out = y * width;
+
+				for (int x = 0; x < width; x++, in += pixelStride) {
+					levels[out + x] = lut[data[in] & 0xFF];
+				}
+			}
+		}
+		else {
+			final int luma = bandOffsets[0], blue = bandOffsets[1], red = bandOffsets[2];
+
+			for (int y = 0; y < height; y++) {
+				int in = offset + y * scanlineStride;
+				int out = y * width;
+
+				for (int x = 0; x < width; x++, in += pixelStride) {
+					int l = data[in + luma] & 0xFF;
+					int cb = data[in + blue] & 0xFF;
+					int cr = data[in + red] & 0xFF;
+					int rgb = 0xFF000000 | clamp(l + CR_R[cr]) << 16 | clamp(l + ((CB_G[cb] + CR_G[cr]) >> 16)) << 8 | clamp(l + CB_B[cb]);
+					levels[out + x] = (byte) threshold.level(rgb);
+				}
+			}
+		}
+
+		return new GreyFrame(width, height, levels);
+	}
+
+	private static int clamp(int component) {
+		return component < 0 ? 0 : Math.min(component, 255);
+	}
+
+	/**
+	 * Read the markers before the frame header to check that the samples are in a colour space ImageIO would convert
+	 * exactly as {@link #extract} does: 8-bit greyscale, or YCbCr as a JFIF marker declares it. Anything with an Adobe
+	 * colour transform or an embedded colour profile is left to ImageIO.
+	 */
+	static boolean isPlain(byte[] data) {
+		if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+			return false;
+		}
+
+		boolean jfif = false;
+		int pos = 2;
+
+		while (pos + 4 <= data.length) {
+			if ((data[pos] & 0xFF) != 0xFF) {
+				return false;
+			}
+
+			int marker = data[pos + 1] & 0xFF;
+
+			if (marker == 0xFF) {
+				// fill byte
+				pos++;
+				continue;
+			}
+
+			int length = (data[pos + 2] & 0xFF) << 8 | data[pos + 3] & 0xFF;
+			int segment = pos + 4;
+
+			if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+				// start of frame: precision, height, width, then the number of components
+				if (segment + 6 > data.length || data[segment] != 8) {
+					return false;
+				}
+
+				int components = data[segment + 5] & 0xFF;
+				return components == 1 || components == 3 && jfif;
+			}
+
+			if (marker == 0xE0 && startsWith(data, segment, "JFIF\0")) {
+				jfif = true;
+			}
+			else if (marker == 0xE2 && startsWith(data, segment, "ICC_PROFILE\0") || marker == 0xEE && startsWith(data, segment, "Adobe")) {
+				return false;
+			}
+
+			pos += 2 + length;
+		}
+
+		return false;
+	}
+
+	private static boolean startsWith(byte[] data, int offset, String tag) {
+		if (offset + tag.length() > data.length) {
+			return false;
+		}
+
+		for (int i = 0; i < tag.length(); i++) {
+			if (data[offset + i] != tag.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
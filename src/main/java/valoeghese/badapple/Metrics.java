@@ -0,0 +1,467 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters for a conversion run, shared by every thread taking part in it.
+ * Each stage of the conversion keeps a histogram of how long it took per frame, so a slow run shows whether its time goes
+ * into reading and writing files or into decoding and edge detection.
+ */
+public final class Metrics {
+	public Metrics(int threads) {
+		this.threads = threads;
+		this.start = System.nanoTime();
+
+		for (int n = 0; n < this.stages.length; n++) {
+			this.stages[n] = new Histogram();
+		}
+
+		for (int n = 0; n < this.queues.length; n++) {
+			this.queues[n] = new Histogram();
+		}
+	}
+
+	private final int threads;
+	private final long start;
+	private final Histogram[] stages = new Histogram[Stage.values().length];
+	private final Histogram[] queues = new Histogram[Queue.values().length];
+	private long bytesWritten = -1;
+	private long gcCount;
+	private long gcMillis;
+	private long allocatedBytes = -1;
+
+	private @Nullable Thread reporter;
+
+	/**
+	 * The steps a frame passes through, in order.
+	 */
+	public enum Stage {
+		READ("read", Role.READER),
+		/**
+		 * Time the reader spends waiting for a free slot in the pipeline.
+		 */
+		SUBMIT("submit", Role.READER),
+		DECODE("decode", Role.WORKER),
+		CACHE("cache", Role.WORKER),
+		MEMO("memo", Role.WORKER),
+		EDGES("edges", Role.WORKER),
+		INTERLACE("interlace", Role.WORKER),
+		FILTER("filter", Role.WRITER),
+		WRITE("write", Role.WRITER);
+
+		Stage(String name, Role role) {
+			this.name = name;
+			this.role = role;
+		}
+
+		private final String name;
+		private final Role role;
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+
+	/**
+	 * Queues whose depth is sampled once per frame.
+	 */
+	public enum Queue {
+		/**
+		 * Frames submitted to the pipeline but not yet written.
+		 */
+		PIPELINE("pipeline"),
+		/**
+		 * Frames accepted by the output but not yet finished, for outputs which work in the background.
+		 */
+		OUTPUT("output");
+
+		Queue(String name) {
+			this.name = name;
+		}
+
+		private final String name;
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+
+	/**
+	 * The threads doing the work, for deciding which of them limits the run.
+	 */
+	private enum Role {
+		READER("reading the source"),
+		WORKER("decoding and edge detection"),
+		WRITER("writing the output");
+
+		Role(String description) {
+			this.description = description;
+		}
+
+		private final String description;
+	}
+
+	public void record(Stage stage, long nanos) {
+		this.stages[stage.ordinal()].record(nanos);
+	}
+
+	public void record(Queue queue, int depth) {
+		this.queues[queue.ordinal()].record(depth);
+	}
+
+	public Histogram get(Stage stage) {
+		return this.stages[stage.ordinal()];
+	}
+
+	public Histogram get(Queue queue) {
+		return this.queues[queue.ordinal()];
+	}
+
+	/**
+	 * @param bytes the bytes written by the output over the run, or -1 if it cannot tell.
+	 */
+	public void setBytesWritten(long bytes) {
+		this.bytesWritten = bytes;
+	}
+
+	/**
+	 * @param collections the garbage collections during the run.
+	 * @param millis the time spent in garbage collection during the run.
+	 * @param allocatedBytes the bytes allocated by the pipeline threads, or -1 if the JVM cannot measure it.
+	 */
+	public void setGc(long collections, long millis, long allocatedBytes) {
+		this.gcCount = collections;
+		this.gcMillis = millis;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/**
+	 * @return the frames written so far.
+	 */
+	public long getFrames() {
+		return this.get(Stage.WRITE).getCount();
+	}
+
+	/**
+	 * @return the fraction of the elapsed time each role spent busy, indexed by {@link Role#ordinal()}.
+	 * Workers are counted as busy in proportion to how many of them are working.
+	 */
+	private double[] busy(long wallNanos) {
+		double[] busy = new double[Role.values().length];
+
+		for (Stage stage : Stage.values()) {
+			if (stage != Stage.SUBMIT) {
+				busy[stage.role.ordinal()] += this.get(stage).getTotal();
+			}
+		}
+
+		for (Role role : Role.values()) {
+			busy[role.ordinal()] /= (double) wallNanos * (role == Role.WORKER ? this.threads : 1);
+		}
+
+		return busy;
+	}
+
+	private static Role busiest(double[] busy) {
+		Role busiest = Role.READER;
+
+		for (Role role : Role.values()) {
+			if (busy[role.ordinal()] > busy[busiest.ordinal()]) {
+				busiest = role;
+			}
+		}
+
+		return busiest;
+	}
+
+	/**
+	 * Print a summary of the run so far every {@code intervalSeconds} seconds, until {@link #stopReporting()}.
+	 */
+	public void startReporting(int intervalSeconds, PrintStream status) {
+		Thread reporter = new Thread(() -> {
+			long[] counts = new long[this.stages.length];
+			long[] totals = new long[this.stages.length];
+			long lastTime = this.start;
+
+			try {
+				while (true) {
+					Thread.sleep(intervalSeconds * 1000L);
+					long now = System.nanoTime();
+					status.println(this.interval(now, now - lastTime, counts, totals));
+					lastTime = now;
+				}
+			} catch (InterruptedException ignored) {
+			}
+		}, "metrics-reporter");
+
+		reporter.setDaemon(true);
+		reporter.start();
+		this.reporter = reporter;
+	}
+
+	public void stopReporting() {
+		if (this.reporter != null) {
+			this.reporter.interrupt();
+			this.reporter = null;
+		}
+	}
+
+	/**
+	 * Describe the interval since the last report: throughput, then the mean time of each stage over the interval.
+	 * @param counts the count of each stage at the last report, updated to the current counts.
+	 * @param totals the total of each stage at the last report, updated to the current totals.
+	 */
+	private String interval(long now, long intervalNanos, long[] counts, long[] totals) {
+		long frames = this.getFrames() - counts[Stage.WRITE.ordinal()];
+		StringBuilder summary = new StringBuilder(String.format(Locale.ROOT, "[%.0f s] %d frames, %.1f frames/s |",
+				(now - this.start) / 1e9, this.getFrames(), frames / (intervalNanos / 1e9)));
+
+		for (Stage stage : Stage.values()) {
+			Histogram histogram = this.get(stage);
+			long count = histogram.getCount(), total = histogram.getTotal();
+			int n = stage.ordinal();
+
+			if (count > counts[n]) {
+				summary.append(String.format(Locale.ROOT, " %s %.2f ms", stage, (total - totals[n]) / 1e6 / (count - counts[n])));
+			}
+
+			counts[n] = count;
+			totals[n] = total;
+		}
+
+		summary.append(String.format(Locale.ROOT, " | in flight %d", this.get(Queue.PIPELINE).getLast()));
+		return summary.toString();
+	}
+
+	/**
+	 * Print the throughput, the latency of each stage and which part of the pipeline limited the run.
+	 */
+	public void printSummary(long wallNanos, PrintStream status) {
+		long frames = this.getFrames();
+		status.printf("Processed %d frames in %d ms (%.1f frames/s on %d threads).%n", frames, Math.round(wallNanos / 1e6),
+				frames / (wallNanos / 1e9), this.threads);
+		status.println(" > Stage latency per frame (mean / p50 / p99 / max, ms):");
+
+		for (Stage stage : Stage.values()) {
+			Histogram histogram = this.get(stage);
+
+			if (histogram.getCount() > 0) {
+				status.printf("     %-9s %8.3f %8.3f %8.3f %8.3f  (%.0f ms total)%n", stage, histogram.getMean() / 1e6,
+						histogram.percentile(0.5) / 1e6, histogram.percentile(0.99) / 1e6, histogram.getMax() / 1e6,
+						histogram.getTotal() / 1e6);
+			}
+		}
+
+		for (Queue queue : Queue.values()) {
+			Histogram histogram = this.get(queue);
+
+			if (histogram.getMax() > 0) {
+				status.printf(" > %s queue: %.1f frames on average, %d at most%n", queue, histogram.getMean(), histogram.getMax());
+			}
+		}
+
+		if (this.bytesWritten >= 0) {
+			status.printf(" > Bytes written: %d (%.1f MiB/s)%n", this.bytesWritten, this.bytesWritten / 1048576.0 / (wallNanos / 1e9));
+		}
+
+		status.printf(" > GC: %d collections, %d ms", this.gcCount, this.gcMillis);
+
+		if (this.allocatedBytes >= 0) {
+			status.printf("; pipeline threads allocated %.1f KiB/frame%n", frames == 0 ? 0.0 : this.allocatedBytes / 1024.0 / frames);
+		}
+		else {
+			status.println();
+		}
+
+		double[] busy = this.busy(wallNanos);
+		Role busiest = busiest(busy);
+		status.printf(" > Bottleneck: %s (busy %.0f%% of the time; reader %.0f%%, workers %.0f%%, writer %.0f%%)%n",
+				busiest.description, 100 * busy[busiest.ordinal()],
+				100 * busy[Role.READER.ordinal()], 100 * busy[Role.WORKER.ordinal()], 100 * busy[Role.WRITER.ordinal()]);
+	}
+
+	/**
+	 * Write every metric to a file, as CSV if the file name ends in {@code .csv} and as JSON otherwise.
+	 */
+	public void dump(Path file, long wallNanos) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file)) {
+			writer.write(file.getFileName().toString().endsWith(".csv") ? this.toCsv(wallNanos) : this.toJson(wallNanos));
+		}
+	}
+
+	private String toJson(long wallNanos) {
+		double[] busy = this.busy(wallNanos);
+		StringBuilder json = new StringBuilder("{\n");
+		json.append(String.format(Locale.ROOT, "  \"frames\": %d,%n  \"wallMillis\": %.3f,%n  \"framesPerSecond\": %.3f,%n  \"threads\": %d,%n  \"bytesWritten\": %d,%n",
+				this.getFrames(), wallNanos / 1e6, this.getFrames() / (wallNanos / 1e9), this.threads, this.bytesWritten));
+		json.append(String.format(Locale.ROOT, "  \"gcCollections\": %d,%n  \"gcMillis\": %d,%n  \"allocatedBytes\": %d,%n", this.gcCount, this.gcMillis, this.allocatedBytes));
+
+		json.append("  \"busy\": {");
+
+		for (Role role : Role.values()) {
+			json.append(String.format(Locale.ROOT, "%s\"%s\": %.4f", role.ordinal() == 0 ? "" : ", ", role.name().toLowerCase(Locale.ROOT), busy[role.ordinal()]));
+		}
+
+		json.append("},\n  \"bottleneck\": \"").append(busiest(busy).name().toLowerCase(Locale.ROOT)).append("\",\n");
+		json.append("  \"stages\": {\n");
+
+		for (Stage stage : Stage.values()) {
+			Histogram histogram = this.get(stage);
+			json.append(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"totalMillis\": %.3f, \"meanMicros\": %.3f, \"p50Micros\": %.3f, \"p90Micros\": %.3f, \"p99Micros\": %.3f, \"maxMicros\": %.3f}%s%n",
+					stage, histogram.getCount(), histogram.getTotal() / 1e6, histogram.getMean() / 1e3, histogram.percentile(0.5) / 1e3,
+					histogram.percentile(0.9) / 1e3, histogram.percentile(0.99) / 1e3, histogram.getMax() / 1e3,
+					stage.ordinal() == this.stages.length - 1 ? "" : ","));
+		}
+
+		json.append("  },\n  \"queues\": {\n");
+
+		for (Queue queue : Queue.values()) {
+			Histogram histogram = this.get(queue);
+			json.append(String.format(Locale.ROOT, "    \"%s\": {\"samples\": %d, \"mean\": %.3f, \"p50\": %d, \"p99\": %d, \"max\": %d}%s%n",
+					queue, histogram.getCount(), histogram.getMean(), histogram.percentile(0.5), histogram.percentile(0.99), histogram.getMax(),
+					queue.ordinal() == this.queues.length - 1 ? "" : ","));
+		}
+
+		return json.append("  }\n}\n").toString();
+	}
+
+	private String toCsv(long wallNanos) {
+		double[] busy = this.busy(wallNanos);
+		StringBuilder csv = new StringBuilder("name,unit,count,total,mean,p50,p90,p99,max\n");
+		csv.append(String.format(Locale.ROOT, "frames,frames,,%d,,,,,%n", this.getFrames()));
+		csv.append(String.format(Locale.ROOT, "wall,ms,,%.3f,,,,,%n", wallNanos / 1e6));
+		csv.append(String.format(Locale.ROOT, "throughput,frames/s,,%.3f,,,,,%n", this.getFrames() / (wallNanos / 1e9)));
+		csv.append(String.format(Locale.ROOT, "bytes_written,bytes,,%d,,,,,%n", this.bytesWritten));
+		csv.append(String.format(Locale.ROOT, "gc_collections,collections,,%d,,,,,%n", this.gcCount));
+		csv.append(String.format(Locale.ROOT, "gc,ms,,%d,,,,,%n", this.gcMillis));
+		csv.append(String.format(Locale.ROOT, "allocated,bytes,,%d,,,,,%n", this.allocatedBytes));
+
+		for (Role role : Role.values()) {
+			csv.append(String.format(Locale.ROOT, "busy_%s,fraction,,%.4f,,,,,%n", role.name().toLowerCase(Locale.ROOT), busy[role.ordinal()]));
+		}
+
+		for (Stage stage : Stage.values()) {
+			Histogram histogram = this.get(stage);
+			csv.append(String.format(Locale.ROOT, "stage_%s,us,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n", stage, histogram.getCount(),
+					histogram.getTotal() / 1e3, histogram.getMean() / 1e3, histogram.percentile(0.5) / 1e3, histogram.percentile(0.9) / 1e3,
+					histogram.percentile(0.99) / 1e3, histogram.getMax() / 1e3));
+		}
+
+		for (Queue queue : Queue.values()) {
+			Histogram histogram = this.get(queue);
+			csv.append(String.format(Locale.ROOT, "queue_%s,frames,%d,%d,%.3f,%d,%d,%d,%d%n", queue, histogram.getCount(),
+					histogram.getTotal(), histogram.getMean(), histogram.percentile(0.5), histogram.percentile(0.9),
+					histogram.percentile(0.99), histogram.getMax()));
+		}
+
+		return csv.toString();
+	}
+
+	/**
+	 * A histogram of non-negative values, safe to record into from any number of threads.
+	 * Values are counted in buckets which split every power of two into {@value #SUB_BUCKETS} equal parts, so percentiles
+	 * are exact for small values and within about 12% for large ones.
+	 */
+	public static final class Histogram {
+		private static final int SUB_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		private volatile long last;
+
+		public void record(long value) {
+			value = Math.max(0, value);
+			this.buckets.incrementAndGet(bucket(value));
+			this.count.incrementAndGet();
+			this.total.addAndGet(value);
+			this.max.accumulateAndGet(value, Math::max);
+			this.last = value;
+		}
+
+		private static int bucket(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+
+			// the position of the highest bit, then the bits just below it
+			int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+			return exponent * SUB_BUCKETS + (int) ((value >>> (exponent - 1)) & (SUB_BUCKETS - 1));
+		}
+
+		/**
+		 * @return the largest value which falls in the given bucket.
+		 */
+		private static long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+
+			int exponent = bucket / SUB_BUCKETS;
+			long base = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 1);
+			return base + (1L << (exponent - 1)) - 1;
+		}
+
+		public long getCount() {
+			return this.count.get();
+		}
+
+		public long getTotal() {
+			return this.total.get();
+		}
+
+		public long getMax() {
+			return this.max.get();
+		}
+
+		/**
+		 * @return the most recently recorded value.
+		 */
+		public long getLast() {
+			return this.last;
+		}
+
+		public double getMean() {
+			long count = this.getCount();
+			return count == 0 ? 0 : this.getTotal() / (double) count;
+		}
+
+		/**
+		 * @param fraction the fraction of values which are at most the result, from 0 to 1.
+		 * @return an upper bound on the given percentile, or 0 if nothing has been recorded.
+		 */
+		public long percentile(double fraction) {
+			long count = this.getCount();
+
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(fraction * count));
+			long seen = 0;
+
+			for (int bucket = 0; bucket < this.buckets.length(); bucket++) {
+				seen += this.buckets.get(bucket);
+
+				if (seen >= rank) {
+					return Math.min(upperBound(bucket), this.getMax());
+				}
+			}
+
+			return this.getMax();
+		}
+	}
+}
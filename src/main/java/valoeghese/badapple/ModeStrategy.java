@@ -0,0 +1,54 @@
+package valoeghese.badapple;
+
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+
+/**
+ * Combines the edges detected in a frame into the channels written to the output. Strategies work on whole frames,
+ * receiving every detected edge of every column at once.
+ *
+ * <p>Besides the built-in {@link BadAppleOscilliscope.Mode}s, strategies are found with {@link java.util.ServiceLoader}
+ * from {@code META-INF/services/valoeghese.badapple.ModeStrategy}, or added with {@link Strategies#register(ModeStrategy)},
+ * and selected with {@code --mode=<id>}.</p>
+ */
+public interface ModeStrategy {
+	/**
+	 * @return the name to select this strategy by on the command line.
+	 */
+	String id();
+
+	/**
+	 * @return the most edges this mode reads from each side of a column.
+	 */
+	int edges();
+
+	/**
+	 * @return the number of channels this mode writes.
+	 */
+	int channels();
+
+	/**
+	 * @param frame the frame number, from 1.
+	 * @return the number of edges to detect for the given frame, at most {@link #edges()}.
+	 */
+	default int edges(int frame) {
+		return this.edges();
+	}
+
+	/**
+	 * Frames with identical levels only share their channels if this also matches, e.g. the frame parity for modes which
+	 * alternate between frames.
+	 */
+	default int variant(int frame) {
+		return 0;
+	}
+
+	/**
+	 * Combine the edges of a frame into its channels.
+	 * @param frame the frame number, from 1.
+	 * @param bottom the lowest position an edge can have.
+	 * @param detected the detected edges, of which the first {@link #edges(int)} are filled in and may be modified.
+	 * @param context the buffers of the frame; see {@link FrameContext#channels(int[], int[])} and {@link FrameContext#output()}.
+	 * @return the channels to pass to {@link VideoOutput#writeFrame}.
+	 */
+	int[][] combine(int frame, int bottom, EdgeResult[] detected, FrameContext context);
+}
@@ -0,0 +1,65 @@
+package valoeghese.badapple;
+
+import java.util.Comparator;
+
+/**
+ * Orders strings so that runs of digits compare by numeric value, e.g. {@code frame_9.jpg} before {@code frame_10.jpg}.
+ */
+final class NaturalOrder implements Comparator<String> {
+	static final NaturalOrder INSTANCE = new NaturalOrder();
+
+	private NaturalOrder() {
+	}
+
+	@Override
+	public int compare(String a, String b) {
+		int i = 0, j = 0;
+
+		while (i < a.length() && j < b.length()) {
+			char ca = a.charAt(i);
+			char cb = b.charAt(j);
+
+			if (isDigit(ca) && isDigit(cb)) {
+				// skip leading zeros, then the longer number is larger, otherwise compare digit by digit
+				int startA = i, startB = j;
+				while (startA < a.length() - 1 && a.charAt(startA) == '0' && isDigit(a.charAt(startA + 1))) startA++;
+				while (startB < b.length() - 1 && b.charAt(startB) == '0' && isDigit(b.charAt(startB + 1))) startB++;
+
+				int endA = startA, endB = startB;
+				while (endA < a.length() && isDigit(a.charAt(endA))) endA++;
+				while (endB < b.length() && isDigit(b.charAt(endB))) endB++;
+
+				int lengthA = endA - startA, lengthB = endB - startB;
+
+				if (lengthA != lengthB) {
+					return lengthA - lengthB;
+				}
+
+				for (int k = 0; k < lengthA; k++) {
+					int diff = a.charAt(startA + k) - b.charAt(startB + k);
+
+					if (diff != 0) {
+						return diff;
+					}
+				}
+
+				i = endA;
+				j = endB;
+			}
+			else {
+				if (ca != cb) {
+					return ca - cb;
+				}
+
+				i++;
+				j++;
+			}
+		}
+
+		return (a.length() - i) - (b.length() - j);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -0,0 +1,73 @@
+package valoeghese.badapple;
+
+/**
+ * Chooses the cutoff of each frame by Otsu's method: the level which best separates the frame's histogram into a dark
+ * and a light class. Hysteresis is kept by widening the cutoff into a band a quarter of the distance between the mean
+ * levels of the two classes, so noise near the cutoff does not add edges. Suits footage whose exposure drifts, where
+ * fixed cutoffs lose the silhouette.
+ */
+public final class OtsuThreshold implements ThresholdStrategy {
+	@Override
+	public String id() {
+		return "otsu";
+	}
+
+	@Override
+	public int level(int rgba) {
+		return (rgba >> 8) & 0xFF;
+	}
+
+	@Override
+	public Cutoffs cutoffs(GreyFrame frame) {
+		final byte[] levels = frame.getLevels();
+		final int size = frame.getWidth() * frame.getHeight();
+		final long[] histogram = new long[256];
+
+		for (int i = 0; i < size; i++) {
+			histogram[levels[i] & 0xFF]++;
+		}
+
+		long total = 0;
+
+		for (int level = 0; level < 256; level++) {
+			total += (long) level * histogram[level];
+		}
+
+		// maximise the variance between the classes at or below and above each candidate cutoff
+		long darkCount = 0;
+		long darkTotal = 0;
+		double bestVariance = 0;
+		int cutoff = 127;
+		double darkMean = 0;
+		double lightMean = 255;
+
+		for (int level = 0; level < 255; level++) {
+			darkCount += histogram[level];
+			darkTotal += (long) level * histogram[level];
+			long lightCount = size - darkCount;
+
+			if (darkCount == 0 || lightCount == 0) {
+				continue;
+			}
+
+			double dark = (double) darkTotal / darkCount;
+			double light = (double) (total - darkTotal) / lightCount;
+			double variance = (double) darkCount * lightCount * (dark - light) * (dark - light);
+
+			if (variance > bestVariance) {
+				bestVariance = variance;
+				cutoff = level;
+				darkMean = dark;
+				lightMean = light;
+			}
+		}
+
+		int band = (int) ((lightMean - darkMean) / 4);
+		return new Cutoffs(cutoff, Math.max(0, cutoff - band), Math.min(255, cutoff + band));
+	}
+
+	@Override
+	public String toString() {
+		return "OTSU";
+	}
+}
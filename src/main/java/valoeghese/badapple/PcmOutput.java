@@ -0,0 +1,237 @@
+package valoeghese.badapple;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the channels as PCM audio, one audio channel per scope channel, either as a WAV file or as raw little-endian
+ * samples. Each column of a frame is one sample, with the bottom of the frame at the lowest sample value and the top at
+ * the highest. Samples can be resampled to a different rate on the fly by linear interpolation, which unlike
+ * band-limited resampling does not make the traces ring at their edges.
+ */
+public final class PcmOutput extends VideoOutput {
+	/**
+	 * @param bits the bits per sample: 8, 16 or 24.
+	 * @param wav whether to write a WAV header, rather than raw samples.
+	 * @param sourceRate the rate samples are produced at, i.e. the number of columns per second.
+	 * @param targetRate the sample rate to write, or 0 to write at {@code sourceRate}.
+	 */
+	public PcmOutput(Path file, int width, int height, int bits, boolean wav, int sourceRate, int targetRate) throws IOException {
+		super(width, height);
+
+		if (bits != 8 && bits != 16 && bits != 24) {
+			throw new IllegalArgumentException("Unsupported sample size " + bits + " bits");
+		}
+
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.bytesPerSample = bits / 8;
+		this.wav = wav;
+		this.sourceRate = sourceRate;
+		this.sampleRate = targetRate > 0 ? targetRate : sourceRate;
+
+		// every level maps to a fixed sample, spread over the full range
+		this.levels = new int[height];
+		long range = (1L << bits) - 1;
+
+		for (int level = 0; level < height; level++) {
+			this.levels[level] = (int) (height == 1 ? 0 : Math.round(level * (double) range / (height - 1)) - (1L << (bits - 1)));
+		}
+	}
+
+	/**
+	 * The settings for audio output from the command line.
+	 * @param header whether to write a WAV file rather than raw samples.
+	 * @param sampleRate the sample rate to resample to, or 0 to not resample.
+	 */
+	public record Options(int bits, boolean header, int sampleRate, double frameRate) {
+	}
+
+	// aim for about this many bytes per write
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int HEADER_SIZE = 44;
+	private static final int EXTENSIBLE_HEADER_SIZE = 68;
+
+	private final FileChannel channel;
+	private final int bytesPerSample;
+	private final boolean wav;
+	private final int sourceRate;
+	private final int sampleRate;
+	private final int[] levels;
+
+	private ByteBuffer buffer;
+	private int channels;
+	private int headerSize;
+	private long dataSize;
+
+	// resampling state: the last source sample of each channel, and how far past it the next output sample is, in units
+	// of 1 / sampleRate source samples
+	private int[] previous;
+	private int[] current;
+	private int[] interpolated;
+	private long phase;
+
+	@Override
+	public void writeFrame(int[] ...channels) throws IOException {
+		if (this.buffer == null) {
+			this.start(channels.length);
+		}
+		else if (channels.length != this.channels) {
+			throw new IllegalArgumentException("Expected " + this.channels + " channels, got " + channels.length);
+		}
+
+		final int height = this.getHeight();
+		final int[] current = this.current;
+
+		for (int x = 0; x < channels[0].length; x++) {
+			for (int ch = 0; ch < channels.length; ch++) {
+				// the spike (-1) is above the top of the frame, so it takes the highest sample
+				current[ch] = this.levels[Math.min(height - 1, height - channels[ch][x] - 1)];
+			}
+
+			if (this.sampleRate == this.sourceRate) {
+				this.put(current);
+			}
+			else {
+				this.resample(current);
+			}
+		}
+	}
+
+	private void start(int channels) throws IOException {
+		this.channels = channels;
+		this.current = new int[channels];
+		this.interpolated = new int[channels];
+		this.previous = null;
+
+		final int frameSize = channels * this.bytesPerSample;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(1, BUFFER_SIZE / frameSize) * frameSize).order(ByteOrder.LITTLE_ENDIAN);
+
+		if (this.wav) {
+			// sizes are filled in on close
+			this.headerSize = channels > 2 || this.bytesPerSample > 2 ? EXTENSIBLE_HEADER_SIZE : HEADER_SIZE;
+			this.header(0);
+			this.flush();
+		}
+	}
+
+	/**
+	 * Emit every output sample which falls between the previous source sample and this one.
+	 */
+	private void resample(int[] current) throws IOException {
+		final int[] previous = this.previous;
+
+		if (previous == null) {
+			// the first output sample is the first source sample
+			this.previous = current.clone();
+			this.put(current);
+			this.phase = this.sourceRate;
+		}
+		else {
+			final long sampleRate = this.sampleRate;
+			final int[] interpolated = this.interpolated;
+
+			while (this.phase < sampleRate) {
+				for (int ch = 0; ch < current.length; ch++) {
+					interpolated[ch] = (int) (previous[ch] + (current[ch] - previous[ch]) * this.phase / sampleRate);
+				}
+
+				this.put(interpolated);
+				this.phase += this.sourceRate;
+			}
+
+			this.phase -= sampleRate;
+			System.arraycopy(current, 0, previous, 0, current.length);
+		}
+	}
+
+	private void put(int[] samples) throws IOException {
+		final ByteBuffer buffer = this.buffer;
+
+		for (int sample : samples) {
+			switch (this.bytesPerSample) {
+			case 1 -> buffer.put((byte) (sample + 128)); // 8-bit PCM is unsigned
+			case 2 -> buffer.putShort((short) sample);
+			default -> {
+				buffer.put((byte) sample);
+				buffer.putShort((short) (sample >> 8));
+			}
+			}
+		}
+
+		this.dataSize += samples.length * this.bytesPerSample;
+
+		if (!buffer.hasRemaining()) {
+			this.flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		this.buffer.flip();
+
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+
+		this.buffer.clear();
+	}
+
+	/**
+	 * Put a WAV header for the given amount of sample data into the buffer.
+	 */
+	private void header(long dataSize) {
+		final ByteBuffer header = this.buffer;
+		final int blockAlign = this.channels * this.bytesPerSample;
+		final boolean extensible = this.headerSize == EXTENSIBLE_HEADER_SIZE;
+		// sizes past 4 GiB cannot be represented, so players fall back to reading to the end of the file
+		final int riffSize = (int) Math.min(0xFFFFFFFFL, this.headerSize - 8 + dataSize);
+
+		header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(riffSize).put("WAVE".getBytes(StandardCharsets.US_ASCII));
+		header.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(extensible ? 40 : 16);
+		header.putShort((short) (extensible ? 0xFFFE : 1)); // PCM
+		header.putShort((short) this.channels);
+		header.putInt(this.sampleRate);
+		header.putInt(this.sampleRate * blockAlign);
+		header.putShort((short) blockAlign);
+		header.putShort((short) (this.bytesPerSample * 8));
+
+		if (extensible) {
+			header.putShort((short) 22);
+			header.putShort((short) (this.bytesPerSample * 8)); // valid bits
+			header.putInt(this.channels >= 32 ? -1 : (1 << this.channels) - 1); // one speaker position per channel, in order
+			// KSDATAFORMAT_SUBTYPE_PCM
+			header.putInt(1).putShort((short) 0).putShort((short) 0x10);
+			header.put(new byte[] {(byte) 0x80, 0x00, 0x00, (byte) 0xAA, 0x00, 0x38, (byte) 0x9B, 0x71});
+		}
+
+		header.put("data".getBytes(StandardCharsets.US_ASCII)).putInt((int) Math.min(0xFFFFFFFFL, dataSize));
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return this.dataSize + this.headerSize;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.buffer != null) {
+			this.flush();
+
+			if (this.wav) {
+				// the only seek: go back and fill in the sizes
+				this.header(this.dataSize);
+				this.buffer.flip();
+
+				for (long position = 0; this.buffer.hasRemaining(); ) {
+					position += this.channel.write(this.buffer, position);
+				}
+			}
+		}
+
+		this.channel.close();
+	}
+}
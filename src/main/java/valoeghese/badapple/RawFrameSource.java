@@ -0,0 +1,96 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file of raw 8-bit greyscale frames stored back to back, each {@code width * height} bytes row by row.
+ * The file is memory-mapped in large windows, and each frame is copied straight out of the mapping when decoded.
+ */
+public final class RawFrameSource implements FrameSource {
+	public RawFrameSource(Path file, int width, int height) throws IOException {
+		this(file, width, height, 0);
+	}
+
+	/**
+	 * @param offset the position in the file of the first frame, for files with a header.
+	 */
+	public RawFrameSource(Path file, int width, int height, long offset) throws IOException {
+		this(file, width, height, offset, false);
+	}
+
+	/**
+	 * @param offset the position in the file of the first frame, for files with a header.
+	 * @param levels whether the file holds levels already extracted for the threshold, which are read unchanged, rather
+	 *               than greyscale pixels to extract levels from.
+	 */
+	public RawFrameSource(Path file, int width, int height, long offset, boolean levels) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.width = width;
+		this.height = height;
+		this.frameSize = width * height;
+		this.offset = offset;
+		this.levels = levels;
+		this.frames = (this.channel.size() - offset) / this.frameSize;
+		// keep windows to a whole number of frames, and within the 2 GiB limit of a single mapping
+		this.framesPerWindow = Math.max(1, MAX_WINDOW / this.frameSize);
+	}
+
+	private static final int MAX_WINDOW = 1 << 30;
+
+	private final FileChannel channel;
+	private final int width;
+	private final int height;
+	private final int frameSize;
+	private final long offset;
+	private final boolean levels;
+	private final long frames;
+	private final long framesPerWindow;
+
+	private MappedByteBuffer window;
+	private long windowStart = -1;
+	private long position;
+
+	@Override
+	public long size() {
+		return this.frames;
+	}
+
+	@Override
+	public @Nullable SourceFrame next() throws IOException {
+		if (this.position == this.frames) {
+			return null;
+		}
+
+		if (this.windowStart < 0 || this.position >= this.windowStart + this.framesPerWindow) {
+			this.windowStart = this.position;
+			long windowFrames = Math.min(this.framesPerWindow, this.frames - this.position);
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.offset + this.windowStart * this.frameSize, windowFrames * this.frameSize);
+		}
+
+		// decoding copies straight out of the mapping; absolute reads leave the shared buffer's position alone
+		int offset = (int) ((this.position - this.windowStart) * this.frameSize);
+		this.position++;
+
+		return this.levels ? SourceFrame.levels(this.width, this.height, this.window, offset)
+				: SourceFrame.grey(this.width, this.height, this.window, offset);
+	}
+
+	@Override
+	public int skip(int frames) {
+		int skipped = (int) Math.min(frames, this.frames - this.position);
+		this.position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.window = null;
+		this.channel.close();
+	}
+}
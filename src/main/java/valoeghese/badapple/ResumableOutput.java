@@ -0,0 +1,15 @@
+package valoeghese.badapple;
+
+import java.io.IOException;
+
+/**
+ * An output written to a single file, which can record how much of the file is complete so that a later run can
+ * truncate the file back to that point and append to it.
+ */
+public interface ResumableOutput {
+	/**
+	 * Write every frame accepted so far through to the file, and force it to the storage device.
+	 * @return the length of the file holding exactly those frames.
+	 */
+	long checkpoint() throws IOException;
+}
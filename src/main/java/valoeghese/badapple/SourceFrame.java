@@ -0,0 +1,133 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A frame read from a {@link FrameSource} which has not been decoded yet.
+ */
+@FunctionalInterface
+public interface SourceFrame {
+	/**
+	 * Decode this frame into levels for the given threshold. Safe to call from any thread.
+	 * @throws IOException if the frame cannot be decoded.
+	 */
+	default GreyFrame decode(ThresholdStrategy threshold) throws IOException {
+		return this.decode(threshold, null);
+	}
+
+	/**
+	 * Decode this frame into levels for the given threshold. Safe to call from any thread.
+	 * @param reuse an array to decode the levels into if it is large enough, or null to allocate one.
+	 * @throws IOException if the frame cannot be decoded.
+	 */
+	GreyFrame decode(ThresholdStrategy threshold, byte @Nullable [] reuse) throws IOException;
+
+	/**
+	 * Decode this frame into levels for each of the given thresholds, reading the frame itself only once where the
+	 * format allows it. Safe to call from any thread.
+	 * @param reuse an array for each threshold to decode its levels into, as for {@link #decode(ThresholdStrategy, byte[])},
+	 *              whose elements may be null.
+	 * @return the levels for each threshold, in the same order.
+	 */
+	default GreyFrame[] decode(ThresholdStrategy[] thresholds, byte[][] reuse) throws IOException {
+		GreyFrame[] frames = new GreyFrame[thresholds.length];
+
+		for (int n = 0; n < thresholds.length; n++) {
+			frames[n] = this.decode(thresholds[n], reuse[n]);
+		}
+
+		return frames;
+	}
+
+	/**
+	 * @param data the bytes of an image file in any format ImageIO can read. Most JPEGs are decoded without building
+	 *             an RGB image, see {@link JpegLevels}.
+	 */
+	static SourceFrame image(String name, byte[] data) {
+		return new SourceFrame() {
+			@Override
+			public GreyFrame decode(ThresholdStrategy threshold, byte @Nullable [] reuse) throws IOException {
+				Raster samples = JpegLevels.read(data);
+				return samples != null ? JpegLevels.extract(samples, threshold, reuse) : GreyFrame.of(this.read(), threshold, reuse);
+			}
+
+			@Override
+			public GreyFrame[] decode(ThresholdStrategy[] thresholds, byte[][] reuse) throws IOException {
+				// the image is decoded once, and only its levels extracted for each threshold
+				Raster samples = JpegLevels.read(data);
+				BufferedImage image = samples == null ? this.read() : null;
+				GreyFrame[] frames = new GreyFrame[thresholds.length];
+
+				for (int n = 0; n < thresholds.length; n++) {
+					frames[n] = samples != null ? JpegLevels.extract(samples, thresholds[n], reuse[n]) : GreyFrame.of(image, thresholds[n], reuse[n]);
+				}
+
+				return frames;
+			}
+
+			private BufferedImage read() throws IOException {
+				// the frame is already in memory, where ImageIO.read(InputStream) would buffer it through a temporary file
+				BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(data)));
+
+				if (image == null) {
+					throw new IOException("Unsupported image format for frame " + name);
+				}
+
+				return image;
+			}
+		};
+	}
+
+	/**
+	 * @param grey a buffer holding 8-bit greyscale pixels, row by row, from {@code offset}. Only read, so it may be shared
+	 *             between frames.
+	 */
+	static SourceFrame grey(int width, int height, ByteBuffer grey, int offset) {
+		return (threshold, reuse) -> {
+			final int size = width * height;
+			byte[] levels = reuse != null && reuse.length >= size ? reuse : new byte[size];
+			grey.get(offset, levels, 0, size);
+
+			// map each grey value through the threshold as if it were an opaque grey pixel
+			for (int v = 0; v < 256; v++) {
+				if (threshold.level(0xFF000000 | v * 0x010101) != v) {
+					byte[] lut = new byte[256];
+
+					for (int g = 0; g < 256; g++) {
+						lut[g] = (byte) threshold.level(0xFF000000 | g * 0x010101);
+					}
+
+					for (int i = 0; i < size; i++) {
+						levels[i] = lut[levels[i] & 0xFF];
+					}
+
+					break;
+				}
+			}
+
+			return new GreyFrame(width, height, levels);
+		};
+	}
+
+	/**
+	 * @param levels a buffer holding levels already extracted for the threshold the frame will be decoded with, row by
+	 *               row, from {@code offset}, as stored by {@link FrameCache}. They are copied unchanged. Only read, so it
+	 *               may be shared between frames.
+	 */
+	static SourceFrame levels(int width, int height, ByteBuffer levels, int offset) {
+		return (threshold, reuse) -> {
+			final int size = width * height;
+			byte[] copy = reuse != null && reuse.length >= size ? reuse : new byte[size];
+			levels.get(offset, copy, 0, size);
+			return new GreyFrame(width, height, copy);
+		};
+	}
+}
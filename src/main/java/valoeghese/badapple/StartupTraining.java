@@ -0,0 +1,99 @@
+package valoeghese.badapple;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A training run for the class data sharing archive built by the {@code app} profile: converts a few small generated
+ * clips the common ways, so that the classes each of them loads are archived.
+ * Usage: {@code java --add-modules jdk.incubator.vector -XX:ArchiveClassesAtExit=<archive> -cp <jar> valoeghese.badapple.StartupTraining <work folder>}
+ */
+public final class StartupTraining {
+	private StartupTraining() {
+	}
+
+	static final int WIDTH = 160;
+	static final int HEIGHT = 120;
+	static final int FRAMES = 8;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: StartupTraining <work folder>");
+			return;
+		}
+
+		Path folder = Path.of(args[0]);
+		Files.createDirectories(folder);
+		String zip = writeZip(folder).toString();
+		String raw = writeRaw(folder).toString();
+		String frameSize = "--frame-size=" + WIDTH + "x" + HEIGHT;
+
+		// debug frame, PNG video, raw binary and raw text, from both kinds of source
+		BadAppleOscilliscope.main(new String[] {zip, "64", "48", "2"});
+		BadAppleOscilliscope.main(new String[] {zip, "64", "48"});
+		BadAppleOscilliscope.main(new String[] {zip, "64", "48", "--rawb"});
+		BadAppleOscilliscope.main(new String[] {raw, "64", "48", "--rawb", frameSize});
+		BadAppleOscilliscope.main(new String[] {raw, "64", "48", "--raw", frameSize});
+		// the Vector API engine, when the training run has jdk.incubator.vector, as the app profile's does
+		BadAppleOscilliscope.main(new String[] {zip, "64", "48", "--rawb", "--edges=vector"});
+	}
+
+	/**
+	 * Write the training clip as a zip of JPEG images.
+	 */
+	static Path writeZip(Path folder) throws IOException {
+		Path file = folder.resolve("frames.zip");
+
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+			for (int i = 0; i < FRAMES; i++) {
+				BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+				image.getRaster().setDataElements(0, 0, WIDTH, HEIGHT, frame(i));
+				zip.putNextEntry(new ZipEntry(BadAppleOscilliscope.leftPad(i + 1, 4) + ".jpg"));
+				ImageIO.write(image, "jpeg", zip);
+				zip.closeEntry();
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * Write the training clip as raw 8-bit greyscale frames.
+	 */
+	static Path writeRaw(Path folder) throws IOException {
+		Path file = folder.resolve("frames.raw");
+
+		try (OutputStream stream = Files.newOutputStream(file)) {
+			for (int i = 0; i < FRAMES; i++) {
+				stream.write(frame(i));
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * A black disc moving across a white background.
+	 */
+	private static byte[] frame(int i) {
+		byte[] pixels = new byte[WIDTH * HEIGHT];
+		int centreX = WIDTH / 4 + i * WIDTH / (2 * FRAMES);
+		int centreY = HEIGHT / 2;
+		int radius = HEIGHT / 3;
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int dx = x - centreX, dy = y - centreY;
+				pixels[y * WIDTH + x] = (byte) (dx * dx + dy * dy < radius * radius ? 0 : 255);
+			}
+		}
+
+		return pixels;
+	}
+}
@@ -0,0 +1,99 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.Function;
+
+/**
+ * The threshold and mode strategies which can be selected by id: the built-in ones, then any found with
+ * {@link ServiceLoader}, then any registered at runtime. Where two strategies share an id, the first one wins.
+ */
+public final class Strategies {
+	private Strategies() {
+	}
+
+	private static @Nullable List<ThresholdStrategy> thresholds;
+	private static @Nullable List<ModeStrategy> modes;
+
+	public static synchronized List<ThresholdStrategy> thresholds() {
+		if (thresholds == null) {
+			thresholds = new ArrayList<>(Arrays.asList(BadAppleOscilliscope.Threshold.values()));
+			load(ThresholdStrategy.class, thresholds, ThresholdStrategy::id);
+		}
+
+		return List.copyOf(thresholds);
+	}
+
+	public static synchronized List<ModeStrategy> modes() {
+		if (modes == null) {
+			modes = new ArrayList<>(Arrays.asList(BadAppleOscilliscope.Mode.values()));
+			load(ModeStrategy.class, modes, ModeStrategy::id);
+		}
+
+		return List.copyOf(modes);
+	}
+
+	public static @Nullable ThresholdStrategy threshold(String id) {
+		for (ThresholdStrategy threshold : thresholds()) {
+			if (threshold.id().equals(id)) {
+				return threshold;
+			}
+		}
+
+		return null;
+	}
+
+	public static @Nullable ModeStrategy mode(String id) {
+		for (ModeStrategy mode : modes()) {
+			if (mode.id().equals(id)) {
+				return mode;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Make a threshold strategy selectable by its id.
+	 * @throws IllegalArgumentException if a strategy with the same id exists.
+	 */
+	public static synchronized void register(ThresholdStrategy threshold) {
+		if (threshold(threshold.id()) != null) {
+			throw new IllegalArgumentException("A threshold with id " + threshold.id() + " already exists");
+		}
+
+		thresholds.add(threshold);
+	}
+
+	/**
+	 * Make a mode strategy selectable by its id.
+	 * @throws IllegalArgumentException if a strategy with the same id exists.
+	 */
+	public static synchronized void register(ModeStrategy mode) {
+		if (mode(mode.id()) != null) {
+			throw new IllegalArgumentException("A mode with id " + mode.id() + " already exists");
+		}
+
+		modes.add(mode);
+	}
+
+	private static <T> void load(Class<T> type, List<T> strategies, Function<T, String> id) {
+		try {
+			for (T strategy : ServiceLoader.load(type)) {
+				if (strategies.stream().anyMatch(existing -> id.apply(existing).equals(id.apply(strategy)))) {
+					System.err.println("Ignoring " + strategy.getClass().getName() + ": a strategy with id " + id.apply(strategy) + " already exists");
+				}
+				else {
+					strategies.add(strategy);
+				}
+			}
+		} catch (ServiceConfigurationError e) {
+			System.err.println("Could not load " + type.getSimpleName() + " plugins: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams samples in real time, in the same layout as {@link Bits8Output}: one unsigned byte per channel, interleaved
+ * column by column. Each frame is shown for one frame period by sweeping its columns over and over at the sample rate.
+ * Frames wait in a look-ahead buffer which is filled before playback starts; if processing falls behind, the last frame
+ * keeps being swept rather than the stream stalling.
+ */
+public final class StreamOutput extends VideoOutput {
+	/**
+	 * @param sampleRate the samples per second per channel, or 0 to sweep each frame exactly once per frame period, at
+	 *                   {@code width * frameRate} samples per second. Only then are the bytes streamed the same as
+	 *                   {@link Bits8Output} writes; at a set rate, frames take whole samples and so do not all get the
+	 *                   same number of them unless the rate is a multiple of the frame rate.
+	 * @param frameRate the frames per second.
+	 * @param lookAhead the number of processed frames to keep ready ahead of playback.
+	 */
+	public StreamOutput(WritableByteChannel target, int width, int height, int sampleRate, double frameRate, int lookAhead) {
+		super(width, height);
+		this.target = target;
+		this.frameRate = frameRate;
+		this.sweepOnce = sampleRate <= 0;
+		this.sampleRate = this.sweepOnce ? width * frameRate : sampleRate;
+		this.lookAhead = lookAhead;
+		this.ready = new ArrayBlockingQueue<>(lookAhead + 1);
+		// one frame is being played and one written while the look-ahead is full
+		this.free = new ArrayBlockingQueue<>(lookAhead + 2);
+
+		this.player = new Thread(this::play, "stream-player");
+		this.player.setDaemon(true);
+		this.player.start();
+	}
+
+	private final WritableByteChannel target;
+	private final double sampleRate;
+	private final boolean sweepOnce;
+	private final double frameRate;
+	private final int lookAhead;
+	private final Thread player;
+
+	// frames ready to play, and played frames whose arrays can be reused
+	private final BlockingQueue<byte[]> ready;
+	private final BlockingQueue<byte[]> free;
+	private int allocated;
+	private final CountDownLatch started = new CountDownLatch(1);
+	private volatile @Nullable Throwable failure;
+
+	private volatile long bytesWritten;
+	private volatile long underruns;
+	private volatile long maxLateNanos;
+
+	private static final byte[] END = new byte[0];
+	// how far ahead of a deadline to stop sleeping and spin instead, since sleeps overshoot
+	private static final long SPIN_NANOS = 200_000;
+
+	/**
+	 * The settings for streaming output from the command line.
+	 * @param target {@code -} for standard output, {@code unix:<path>} for a UNIX domain socket, or the path of a file or named pipe.
+	 */
+	public record Options(String target, int sampleRate, double frameRate, int lookAhead) {
+		public boolean toStandardOutput() {
+			return this.target.equals("-");
+		}
+	}
+
+	/**
+	 * Open the channel described by {@link Options#target()}.
+	 */
+	public static WritableByteChannel open(String target) throws IOException {
+		if (target.equals("-")) {
+			return new FileOutputStream(FileDescriptor.out).getChannel();
+		}
+		else if (target.startsWith("unix:")) {
+			SocketChannel socket = SocketChannel.open(StandardProtocolFamily.UNIX);
+			socket.connect(UnixDomainSocketAddress.of(target.substring("unix:".length())));
+			return socket;
+		}
+		else {
+			return FileChannel.open(Path.of(target), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+	}
+
+	@Override
+	public void writeFrame(int[] ...channels) throws IOException {
+		this.rethrowFailure();
+		final int frameSize = channels[0].length * channels.length;
+		byte[] frame = this.free.poll();
+
+		if (frame == null && this.allocated < this.lookAhead + 2) {
+			frame = new byte[frameSize];
+			this.allocated++;
+		}
+
+		try {
+			while (frame == null) {
+				this.rethrowFailure();
+				frame = this.free.poll(100, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for playback", e);
+		}
+
+		if (frame.length != frameSize) {
+			frame = new byte[frameSize];
+		}
+
+		final int height = this.getHeight();
+		int i = 0;
+
+		for (int x = 0; x < channels[0].length; x++) {
+			for (int[] channel : channels) {
+				frame[i++] = (byte) (height - channel[x] - 1);
+			}
+		}
+
+		this.enqueue(frame);
+
+		if (this.ready.remainingCapacity() <= 1) {
+			this.started.countDown();
+		}
+	}
+
+	private void enqueue(byte[] frame) throws IOException {
+		try {
+			while (!this.ready.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+				this.rethrowFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for playback", e);
+		}
+	}
+
+	private void play() {
+		try {
+			this.started.await();
+
+			// about 2 ms of samples per write
+			final int chunkSamples = Math.max(1, (int) (this.sampleRate / 500));
+			ByteBuffer chunk = null;
+
+			byte[] current = null;
+			int channels = 0;
+			int column = 0;
+			long frames = 0;
+			long frameSamplesLeft = 0;
+			long samples = 0;
+			final long start = System.nanoTime();
+
+			while (true) {
+				if (frameSamplesLeft == 0) {
+					byte[] next = current == null ? this.ready.take() : this.ready.poll();
+
+					if (next == END) {
+						break;
+					}
+					else if (next == null) {
+						// processing has fallen behind: keep showing the current frame
+						this.underruns++;
+					}
+					else {
+						if (current != null) {
+							this.free.add(current);
+						}
+
+						current = next;
+						channels = current.length / this.getWidth();
+						column = 0;
+
+						if (chunk == null || chunk.capacity() != chunkSamples * channels) {
+							chunk = ByteBuffer.allocateDirect(chunkSamples * channels);
+						}
+					}
+
+					// whole samples per frame, without drifting from the frame rate
+					frameSamplesLeft = this.sweepOnce ? this.getWidth()
+							: Math.round((frames + 1) * this.sampleRate / this.frameRate) - Math.round(frames * this.sampleRate / this.frameRate);
+					frames++;
+				}
+
+				// sweep the frame's columns until the chunk is full or the frame's time is up
+				while (frameSamplesLeft > 0 && chunk.hasRemaining()) {
+					chunk.put(current, column * channels, channels);
+					column = column + 1 == this.getWidth() ? 0 : column + 1;
+					frameSamplesLeft--;
+				}
+
+				if (!chunk.hasRemaining()) {
+					this.pace(start, samples);
+					samples += this.flush(chunk) / channels;
+				}
+			}
+
+			if (chunk != null && chunk.position() > 0) {
+				this.pace(start, samples);
+				this.flush(chunk);
+			}
+		} catch (Throwable t) {
+			this.failure = t;
+			// release a writer waiting for a free frame
+			this.free.offer(new byte[0]);
+		}
+	}
+
+	/**
+	 * Wait until the given sample is due. Deadlines are measured from the start, so delays do not accumulate.
+	 */
+	private void pace(long start, long sample) {
+		final long deadline = start + (long) (sample * 1_000_000_000.0 / this.sampleRate);
+		long remaining;
+
+		while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+		}
+
+		while (deadline - System.nanoTime() > 0) {
+			Thread.onSpinWait();
+		}
+
+		long late = System.nanoTime() - deadline;
+
+		if (late > this.maxLateNanos) {
+			this.maxLateNanos = late;
+		}
+	}
+
+	private int flush(ByteBuffer chunk) throws IOException {
+		chunk.flip();
+		int written = chunk.remaining();
+
+		while (chunk.hasRemaining()) {
+			this.target.write(chunk);
+		}
+
+		chunk.clear();
+		this.bytesWritten += written;
+		return written;
+	}
+
+	private void rethrowFailure() throws IOException {
+		Throwable failure = this.failure;
+
+		if (failure != null) {
+			throw new IOException("Streaming output failed", failure);
+		}
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return this.bytesWritten;
+	}
+
+	@Override
+	public int getQueuedFrames() {
+		return this.ready.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			// play whatever is buffered, even if the look-ahead never filled
+			this.started.countDown();
+			this.enqueue(END);
+			this.player.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for playback to finish", e);
+		} finally {
+			this.target.close();
+		}
+
+		this.rethrowFailure();
+	}
+
+	@Override
+	public void printSummary(PrintStream status) {
+		status.printf(" > Stream: %.1f Hz, %.2f frames/s; %d underruns, at most %.2f ms late%n",
+				this.sampleRate, this.frameRate, this.underruns, this.maxLateNanos / 1e6);
+	}
+}
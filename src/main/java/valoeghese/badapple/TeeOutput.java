@@ -0,0 +1,243 @@
+package valoeghese.badapple;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes every frame to several outputs at once, each on its own writer thread, so a slow output such as the PNG encoder
+ * does not hold up the others.
+ * Each frame's channels are copied once into a frame from a bounded pool, which is shared by every output's queue and
+ * returned to the pool once all of them have written it. When the slowest output falls a whole pool behind,
+ * {@link #writeFrame} waits for it, holding up the pipeline rather than buffering without limit.
+ */
+public final class TeeOutput extends VideoOutput {
+	/**
+	 * @param names a name for each output, to report its progress under.
+	 * @param capacity the most frames any output can fall behind the fastest.
+	 */
+	public TeeOutput(List<VideoOutput> outputs, List<String> names, int capacity) {
+		super(outputs.get(0).getWidth(), outputs.get(0).getHeight());
+		this.pool = new ArrayBlockingQueue<>(capacity);
+
+		for (int n = 0; n < capacity; n++) {
+			this.pool.add(new Frame());
+		}
+
+		this.sinks = new Sink[outputs.size()];
+
+		for (int n = 0; n < this.sinks.length; n++) {
+			this.sinks[n] = new Sink(names.get(n), outputs.get(n), capacity);
+		}
+	}
+
+	// marks the end of the frames in a sink's queue
+	private static final Frame END = new Frame();
+
+	private final BlockingQueue<Frame> pool;
+	private final Sink[] sinks;
+	private volatile boolean failed;
+
+	// only touched by the thread calling writeFrame
+	private long blockedNanos;
+	private int blocked;
+
+	@Override
+	public void writeFrame(int[]... channels) throws IOException {
+		this.rethrowFailure();
+
+		Frame frame = this.pool.poll();
+
+		if (frame == null) {
+			long start = System.nanoTime();
+
+			try {
+				frame = this.pool.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the slowest output", e);
+			}
+
+			this.blockedNanos += System.nanoTime() - start;
+			this.blocked++;
+		}
+
+		frame.copy(channels);
+		frame.pending.set(this.sinks.length);
+
+		for (Sink sink : this.sinks) {
+			// never full, as there are no more frames than fit in each queue
+			sink.queue.add(frame);
+			sink.maxLag = Math.max(sink.maxLag, sink.queue.size());
+		}
+	}
+
+	private void release(Frame frame) {
+		if (frame.pending.decrementAndGet() == 0) {
+			this.pool.add(frame);
+		}
+	}
+
+	private void rethrowFailure() throws IOException {
+		if (this.failed) {
+			for (Sink sink : this.sinks) {
+				if (sink.failure != null) {
+					throw new IOException("Output " + sink.name + " failed", sink.failure);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the total bytes written by every output, or -1 if any of them does not keep count.
+	 */
+	@Override
+	public long getBytesWritten() {
+		long bytes = 0;
+
+		for (Sink sink : this.sinks) {
+			long written = sink.output.getBytesWritten();
+
+			if (written < 0) {
+				return -1;
+			}
+
+			bytes += written;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * @return the most frames any output has yet to write.
+	 */
+	@Override
+	public int getQueuedFrames() {
+		int queued = 0;
+
+		for (Sink sink : this.sinks) {
+			queued = Math.max(queued, sink.queue.size() + sink.output.getQueuedFrames());
+		}
+
+		return queued;
+	}
+
+	/**
+	 * Print how far behind each output fell, and how long the slowest held up the frames written to this output, then
+	 * the summary of each output.
+	 */
+	@Override
+	public void printSummary(PrintStream status) {
+		for (Sink sink : this.sinks) {
+			status.printf(" > Output %s: %d frames, %.2f ms/frame, at most %d frames behind%n", sink.name, sink.frames,
+					sink.frames == 0 ? 0.0 : sink.writeNanos / 1e6 / sink.frames, sink.maxLag);
+		}
+
+		status.printf(" > Waited for the slowest output %d times, %.0f ms in total%n", this.blocked, this.blockedNanos / 1e6);
+
+		for (Sink sink : this.sinks) {
+			sink.output.printSummary(status);
+		}
+	}
+
+	/**
+	 * Wait for every output to write its remaining frames, then close them all.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Sink sink : this.sinks) {
+			sink.queue.add(END);
+		}
+
+		for (Sink sink : this.sinks) {
+			try {
+				sink.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while closing output " + sink.name, e);
+			}
+		}
+
+		this.rethrowFailure();
+	}
+
+	/**
+	 * A copy of one frame's channels, shared by the queues of every output until they have all written it.
+	 */
+	private static final class Frame {
+		int[][] channels = new int[0][];
+		final AtomicInteger pending = new AtomicInteger();
+
+		void copy(int[][] channels) {
+			if (this.channels.length != channels.length || this.channels[0].length != channels[0].length) {
+				this.channels = new int[channels.length][channels[0].length];
+			}
+
+			for (int ch = 0; ch < channels.length; ch++) {
+				System.arraycopy(channels[ch], 0, this.channels[ch], 0, channels[ch].length);
+			}
+		}
+	}
+
+	/**
+	 * One output, with the queue of frames it has yet to write and the thread writing them.
+	 */
+	private final class Sink {
+		Sink(String name, VideoOutput output, int capacity) {
+			this.name = name;
+			this.output = output;
+			// room for every frame in the pool, and the end
+			this.queue = new ArrayBlockingQueue<>(capacity + 1);
+			this.thread = new Thread(this::writeLoop, "tee-" + name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		final String name;
+		final VideoOutput output;
+		final BlockingQueue<Frame> queue;
+		final Thread thread;
+		volatile Throwable failure;
+
+		// written by the sink's thread, read once it has finished
+		long frames;
+		long writeNanos;
+		// written by the thread calling writeFrame
+		int maxLag;
+
+		private void writeLoop() {
+			try {
+				for (Frame frame = this.queue.take(); frame != END; frame = this.queue.take()) {
+					// after a failure, keep releasing frames so that the others can carry on until the failure is seen
+					if (this.failure == null) {
+						try {
+							long start = System.nanoTime();
+							this.output.writeFrame(frame.channels);
+							this.writeNanos += System.nanoTime() - start;
+							this.frames++;
+						} catch (Throwable t) {
+							this.fail(t);
+						}
+					}
+
+					TeeOutput.this.release(frame);
+				}
+
+				this.output.close();
+			} catch (Throwable t) {
+				this.fail(t);
+			}
+		}
+
+		private void fail(Throwable t) {
+			if (this.failure == null) {
+				this.failure = t;
+			}
+
+			TeeOutput.this.failed = true;
+		}
+	}
+}
@@ -2,43 +2,245 @@ package valoeghese.badapple;
 
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
 
-public class TextFileOutput extends VideoOutput {
+/**
+ * Writes each sample as a decimal number, one line per column with the channels separated by tabs (or another separator).
+ * Numbers are formatted straight into a reusable byte buffer, which is written to the file directly or through gzip.
+ */
+public class TextFileOutput extends VideoOutput implements ResumableOutput {
 	public TextFileOutput(Path file, int width, int height) throws IOException {
+		this(file, width, height, '\t', false, false);
+	}
+
+	/**
+	 * @param separator the character between the channels of a line, e.g. a tab or a comma.
+	 * @param header whether to start the file with a line naming the channels.
+	 * @param gzip whether to compress the file with gzip as it is written.
+	 */
+	public TextFileOutput(Path file, int width, int height, char separator, boolean header, boolean gzip) throws IOException {
+		this(file, width, height, separator, header, gzip, 0);
+	}
+
+	/**
+	 * @param resumeOffset the length of the file from an earlier run to keep and append to, or 0 to start a new file.
+	 *                     No header is written when resuming.
+	 */
+	public TextFileOutput(Path file, int width, int height, char separator, boolean header, boolean gzip, long resumeOffset) throws IOException {
 		super(width, height);
 
-		if (!Files.exists(file)) {
-			Files.createFile(file);
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+		try {
+			this.channel.truncate(resumeOffset);
+			this.channel.position(resumeOffset);
+			this.gzip = gzip ? this.newGzip() : null;
+		} catch (IOException | RuntimeException e) {
+			try {
+				this.channel.close();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+
+			throw e;
 		}
 
-		this.writer = Files.newBufferedWriter(file);
+		this.separator = (byte) separator;
+		this.header = header && resumeOffset == 0;
 	}
 
-	private BufferedWriter writer;
+	// aim for about this many bytes per write
+	private static final int BUFFER_SIZE = 1 << 16;
+	// the longest int, with its sign, and a separator
+	private static final int MAX_SAMPLE_LENGTH = 12;
+
+	// the two digits of every number below 100
+	private static final byte[] DIGIT_TENS = new byte[100];
+	private static final byte[] DIGIT_ONES = new byte[100];
+
+	static {
+		for (int n = 0; n < 100; n++) {
+			DIGIT_TENS[n] = (byte) ('0' + n / 10);
+			DIGIT_ONES[n] = (byte) ('0' + n % 10);
+		}
+	}
+
+	private final FileChannel channel;
+	private @Nullable OutputStream gzip;
+	private final byte separator;
+	private boolean header;
+
+	// reused for every frame
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int length;
+	private long bytesWritten;
 
 	@Override
 	public void writeFrame(int[] ...channels) throws IOException {
-		StringBuilder builder = new StringBuilder();
+		if (this.header) {
+			this.header = false;
+			this.writeHeader(channels.length);
+		}
+
+		final byte[] buffer = this.buffer;
+		final byte separator = this.separator;
 		final int len = channels[0].length;
-		final int[] lastChannel = channels[channels.length-1];
+		final int last = channels.length - 1;
+		final int height = this.getHeight();
+		int length = this.length;
 
 		for (int x = 0; x < len; x++) {
-			for (int[] channel : channels) {
-				builder.append(this.getHeight() - channel[x] - 1)
-						.append(channel == lastChannel ? '\n' : '\t');
+			if (length > buffer.length - MAX_SAMPLE_LENGTH * channels.length) {
+				this.length = length;
+				this.flush();
+				length = 0;
+			}
+
+			for (int ch = 0; ch <= last; ch++) {
+				length = format(height - channels[ch][x] - 1, buffer, length);
+				buffer[length++] = ch == last ? (byte) '\n' : separator;
 			}
 		}
 
-		this.writer.write(builder.toString());
+		this.length = length;
+	}
+
+	private void writeHeader(int channels) throws IOException {
+		StringBuilder header = new StringBuilder();
+
+		for (int ch = 1; ch <= channels; ch++) {
+			header.append("ch").append(ch).append(ch == channels ? '\n' : (char) this.separator);
+		}
+
+		byte[] bytes = header.toString().getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+		this.length += bytes.length;
+	}
+
+	/**
+	 * Write a number in decimal into a buffer, two digits at a time.
+	 * @return the position after the number.
+	 */
+	static int format(int value, byte[] buffer, int position) {
+		if (value < 0) {
+			if (value == Integer.MIN_VALUE) {
+				byte[] digits = Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
+				System.arraycopy(digits, 0, buffer, position, digits.length);
+				return position + digits.length;
+			}
+
+			buffer[position++] = '-';
+			value = -value;
+		}
+
+		int end = position + digits(value);
+		int i = end;
+
+		while (value >= 100) {
+			int pair = value % 100;
+			value /= 100;
+			buffer[--i] = DIGIT_ONES[pair];
+			buffer[--i] = DIGIT_TENS[pair];
+		}
+
+		buffer[--i] = DIGIT_ONES[value];
+
+		if (value >= 10) {
+			buffer[--i] = DIGIT_TENS[value];
+		}
+
+		return end;
+	}
+
+	private static int digits(int value) {
+		int digits = 1;
+
+		for (long limit = 10; value >= limit && digits < 10; limit *= 10) {
+			digits++;
+		}
+
+		return digits;
+	}
+
+	private void flush() throws IOException {
+		if (this.gzip != null) {
+			this.gzip.write(this.buffer, 0, this.length);
+		}
+		else {
+			ByteBuffer buffer = ByteBuffer.wrap(this.buffer, 0, this.length);
+
+			while (buffer.hasRemaining()) {
+				this.channel.write(buffer);
+			}
+		}
+
+		this.bytesWritten += this.length;
+		this.length = 0;
+	}
+
+	/**
+	 * Start a gzip member writing to the channel. Closing the member ends its compressor but leaves the channel open.
+	 */
+	private OutputStream newGzip() throws IOException {
+		OutputStream channel = new FilterOutputStream(Channels.newOutputStream(this.channel)) {
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				this.out.write(bytes, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				this.flush();
+			}
+		};
+
+		return new GZIPOutputStream(channel, BUFFER_SIZE);
+	}
+
+	/**
+	 * When compressing, this ends the current gzip member and starts a new one; gzip readers join the members back up.
+	 */
+	@Override
+	public long checkpoint() throws IOException {
+		this.flush();
+
+		if (this.gzip != null) {
+			this.gzip.close();
+		}
+
+		// taken before the next member writes its header
+		long offset = this.channel.position();
+
+		if (this.gzip != null) {
+			this.gzip = this.newGzip();
+		}
+
+		this.channel.force(false);
+		return offset;
+	}
+
+	/**
+	 * @return the bytes of text written so far, before any compression.
+	 */
+	@Override
+	public long getBytesWritten() {
+		return this.bytesWritten + this.length;
 	}
 
 	@Override
 	public void close() throws IOException {
-		this.writer.flush();
-		this.writer.close();
+		// the gzip member and then the channel are closed even if the last flush fails, e.g. when the disk is full
+		try (FileChannel channel = this.channel; OutputStream gzip = this.gzip) {
+			this.flush();
+		}
 	}
 }
@@ -0,0 +1,35 @@
+package valoeghese.badapple;
+
+/**
+ * Decides which pixels of a frame are white, for edge detection. Strategies work on whole frames: the levels of a frame
+ * are extracted once with {@link #level(int)}, then {@link #cutoffs(GreyFrame)} is called once per frame and the
+ * resulting cutoffs are applied to every column in bulk, with hysteresis.
+ *
+ * <p>Besides the built-in {@link BadAppleOscilliscope.Threshold}s, strategies are found with {@link java.util.ServiceLoader}
+ * from {@code META-INF/services/valoeghese.badapple.ThresholdStrategy}, or added with {@link Strategies#register(ThresholdStrategy)},
+ * and selected with {@code --threshold=<id>}.</p>
+ */
+public interface ThresholdStrategy {
+	/**
+	 * @return the name to select this strategy by on the command line.
+	 */
+	String id();
+
+	/**
+	 * Reduce a pixel colour to the 8-bit level which is compared against the cutoffs. Must not depend on the frame, as
+	 * levels may be cached between runs.
+	 */
+	int level(int rgba);
+
+	/**
+	 * Choose the cutoffs for a frame. Called once per frame, through {@link GreyFrame#cutoffs(ThresholdStrategy)}.
+	 */
+	Cutoffs cutoffs(GreyFrame frame);
+
+	/**
+	 * Levels above a cutoff are white. Walking along a column, the first pixel is compared against {@code first}; after
+	 * that, a white pixel stays white above {@code white} and a black pixel turns white above {@code black}.
+	 */
+	record Cutoffs(int first, int white, int black) {
+	}
+}
@@ -0,0 +1,290 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Post-processes the channels of each frame between edge detection and the output, in the order frames are written.
+ *
+ * <p>Routing sorts the samples of every column across the channels, lowest point in channel 1. The points drawn are the
+ * same, but pairing the points of neighbouring columns in sorted order is the least vertical travel between them, so
+ * each channel's trace jumps as little as possible. Smoothing then replaces each sample with the mean or median of that
+ * sample over the last few frames, to steady edges which jitter from frame to frame. Frames a mode treats differently
+ * (see {@link ModeStrategy#variant(int)}) are smoothed separately.</p>
+ *
+ * <p>Filtering a frame takes time in proportion to its width and does not allocate.</p>
+ */
+public final class TraceFilter {
+	/**
+	 * @param firstFrame the number of the first frame that will be filtered.
+	 * @param firstOutputFrame the number of the first frame to pass on; earlier frames only fill the history.
+	 *                         See {@link #warmUp(ModeStrategy, Options, int)}.
+	 */
+	public TraceFilter(ModeStrategy mode, int width, Options options, int firstFrame, int firstOutputFrame) {
+		this.mode = mode;
+		this.width = width;
+		this.options = options;
+		this.frame = firstFrame;
+		this.firstOutputFrame = firstOutputFrame;
+		this.routed = new int[mode.channels()][width];
+		this.output = new int[mode.channels()][width];
+		this.column = new int[mode.channels()];
+		this.window = new int[options.frames()];
+	}
+
+	private final ModeStrategy mode;
+	private final int width;
+	private final Options options;
+	private int frame;
+	private final int firstOutputFrame;
+	// the recent frames of each variant, created when the variant is first seen
+	private History[] histories = new History[0];
+
+	// reused for every frame
+	private final int[][] routed;
+	private final int[][] output;
+	private final int[] column;
+	private final int[] window;
+
+	private static final int VARIANT_LOOKAHEAD = 64;
+
+	public enum Smoothing {
+		NONE,
+		MEAN,
+		MEDIAN
+	}
+
+	/**
+	 * The settings for filtering from the command line.
+	 * @param frames the number of frames to smooth over, including the current one.
+	 * @param route whether to sort the samples of each column across the channels.
+	 */
+	public record Options(Smoothing smoothing, int frames, boolean route) {
+		public static final Options NONE = new Options(Smoothing.NONE, 1, false);
+
+		public boolean isEnabled() {
+			return this.smoothing != Smoothing.NONE || this.route;
+		}
+
+		/**
+		 * @param smoothing the smoothing as given on the command line, {@code [mean:|median:]N} over 2 to 64 frames.
+		 * @return these options with the given smoothing, or null if it is malformed.
+		 */
+		public @Nullable Options withSmoothing(String smoothing) {
+			int colon = smoothing.indexOf(':');
+			String kind = colon < 0 ? "mean" : smoothing.substring(0, colon);
+			int frames;
+
+			try {
+				frames = Integer.parseInt(smoothing.substring(colon + 1));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+
+			if (frames < 2 || frames > 64 || !(kind.equals("mean") || kind.equals("median"))) {
+				return null;
+			}
+
+			return new Options(kind.equals("mean") ? Smoothing.MEAN : Smoothing.MEDIAN, frames, this.route);
+		}
+
+		public Options withRoute() {
+			return new Options(this.smoothing, this.frames, true);
+		}
+	}
+
+	/**
+	 * Work out how many frames before the first frame written should be filtered first, so that the frames written are
+	 * smoothed the same as if the conversion had started from the beginning. Goes back until every variant written has a
+	 * full history, or to the start of the source. The variants written are taken from the next
+	 * {@value #VARIANT_LOOKAHEAD} frames, as modes are expected to cycle through their variants well within that.
+	 * @param from the number of the first frame to write.
+	 */
+	public static int warmUp(ModeStrategy mode, Options options, int from) {
+		if (options.smoothing() == Smoothing.NONE) {
+			return 0;
+		}
+
+		// the number of earlier frames each variant written still needs
+		Map<Integer, Integer> needed = new HashMap<>();
+
+		for (int frame = from; frame < from + VARIANT_LOOKAHEAD; frame++) {
+			needed.put(mode.variant(frame), options.frames() - 1);
+		}
+
+		int warmUp = 0;
+
+		for (int frame = from - 1; frame >= 1 && !needed.isEmpty(); frame--) {
+			needed.computeIfPresent(mode.variant(frame), (variant, count) -> count == 1 ? null : count - 1);
+			warmUp++;
+		}
+
+		return warmUp;
+	}
+
+	/**
+	 * Filter the next frame.
+	 * @param channels the channels of the frame, which are not modified.
+	 * @return the channels to write, which are overwritten by the next call; or null for a frame before the first output frame.
+	 */
+	public int @Nullable [][] apply(int[][] channels) {
+		final int frame = this.frame++;
+		int[][] source = channels;
+
+		if (this.options.route()) {
+			this.route(channels);
+			source = this.routed;
+		}
+
+		if (this.options.smoothing() == Smoothing.NONE) {
+			return frame < this.firstOutputFrame ? null : source;
+		}
+
+		History history = this.history(this.mode.variant(frame));
+		history.add(source, this.width);
+
+		if (frame < this.firstOutputFrame) {
+			return null;
+		}
+
+		if (this.options.smoothing() == Smoothing.MEAN) {
+			this.mean(source, history);
+		}
+		else {
+			this.median(source, history);
+		}
+
+		return this.output;
+	}
+
+	/**
+	 * Sort each column of the channels into {@link #routed}, largest position (lowest point) first.
+	 */
+	private void route(int[][] channels) {
+		final int[] column = this.column;
+
+		for (int x = 0; x < this.width; x++) {
+			for (int ch = 0; ch < column.length; ch++) {
+				column[ch] = channels[ch][x];
+			}
+
+			sort(column, column.length);
+
+			for (int ch = 0; ch < column.length; ch++) {
+				this.routed[column.length - 1 - ch][x] = column[ch];
+			}
+		}
+	}
+
+	private void mean(int[][] source, History history) {
+		final int count = history.count;
+
+		for (int ch = 0; ch < source.length; ch++) {
+			final int[] in = source[ch];
+			final int[] out = this.output[ch];
+			final int offset = ch * this.width;
+
+			for (int x = 0; x < this.width; x++) {
+				// negative samples, such as the spike, are markers rather than positions
+				out[x] = in[x] < 0 ? in[x] : Math.floorDiv(2 * history.sums[offset + x] + count, 2 * count);
+			}
+		}
+	}
+
+	/**
+	 * Take the median of each sample, or the lower of the middle two with an even number of frames.
+	 */
+	private void median(int[][] source, History history) {
+		final int count = history.count;
+		final int[] window = this.window;
+
+		for (int ch = 0; ch < source.length; ch++) {
+			final int[] in = source[ch];
+			final int[] out = this.output[ch];
+			final int offset = ch * this.width;
+
+			for (int x = 0; x < this.width; x++) {
+				if (in[x] < 0) {
+					out[x] = in[x];
+					continue;
+				}
+
+				for (int n = 0; n < count; n++) {
+					window[n] = history.frames[n][offset + x];
+				}
+
+				sort(window, count);
+				out[x] = window[(count - 1) / 2];
+			}
+		}
+	}
+
+	/**
+	 * Insertion sort, which is quickest for the handful of values in a column or window.
+	 */
+	private static void sort(int[] values, int length) {
+		for (int i = 1; i < length; i++) {
+			int value = values[i];
+			int j = i - 1;
+
+			for (; j >= 0 && values[j] > value; j--) {
+				values[j + 1] = values[j];
+			}
+
+			values[j + 1] = value;
+		}
+	}
+
+	private History history(int variant) {
+		if (variant >= this.histories.length) {
+			this.histories = Arrays.copyOf(this.histories, variant + 1);
+		}
+
+		if (this.histories[variant] == null) {
+			this.histories[variant] = new History(this.options.frames(), this.routed.length * this.width);
+		}
+
+		return this.histories[variant];
+	}
+
+	/**
+	 * A ring buffer of the last few frames, with every channel of a frame laid end to end, and the sum of each sample.
+	 */
+	private static final class History {
+		History(int frames, int samples) {
+			this.frames = new int[frames][samples];
+			this.sums = new int[samples];
+		}
+
+		final int[][] frames;
+		final int[] sums;
+		// the frame to replace next, and the number of frames held
+		int next;
+		int count;
+
+		void add(int[][] channels, int width) {
+			final int[] replaced = this.frames[this.next];
+			final boolean full = this.count == this.frames.length;
+
+			for (int ch = 0; ch < channels.length; ch++) {
+				final int[] in = channels[ch];
+				final int offset = ch * width;
+
+				for (int x = 0; x < width; x++) {
+					int i = offset + x;
+					this.sums[i] += full ? in[x] - replaced[i] : in[x];
+					replaced[i] = in[x];
+				}
+			}
+
+			this.next = (this.next + 1) % this.frames.length;
+
+			if (!full) {
+				this.count++;
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package valoeghese.badapple;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import org.jetbrains.annotations.Nullable;
 
 /**
@@ -30,6 +31,27 @@ public abstract class VideoOutput {
 	 */
 	public abstract void writeFrame(int[] ...channels) throws IOException;
 
+	/**
+	 * @return the number of bytes this output has written so far, or -1 if it does not keep count.
+	 */
+	public long getBytesWritten() {
+		return -1;
+	}
+
+	/**
+	 * @return the number of frames accepted by {@link #writeFrame} which are still being written in the background.
+	 */
+	public int getQueuedFrames() {
+		return 0;
+	}
+
+	/**
+	 * Print anything worth knowing about how this output went. Only meaningful once closed.
+	 * @param status where to print, which is never the stream of an output.
+	 */
+	public void printSummary(PrintStream status) {
+	}
+
 	/**
 	 * Called upon the end of the video output, to do anything that needs to be handled then, such as closing an output stream.
 	 * @throws IOException if an IOException occurs during handling.
@@ -0,0 +1,125 @@
+package valoeghese.badapple;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the numbered frames in a zip file in natural filename order (see {@link FrameSource#frames}).
+ * The entry names are sorted once up front. An archive written in frame order is then streamed from start to end;
+ * otherwise, or if the stream turns out to hold a frame early, frames are read by random access instead, so no frame is
+ * ever held in memory waiting for its turn.
+ */
+public final class ZipFrameSource implements FrameSource {
+	public ZipFrameSource(Path file) throws IOException {
+		this.file = file;
+		List<String> images = new ArrayList<>();
+		List<String> stored = new ArrayList<>();
+
+		// read the central directory once to find every frame
+		try (ZipFile zip = new ZipFile(file.toFile())) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+
+				if (!entry.isDirectory() && FrameSource.isImage(entry.getName())) {
+					images.add(entry.getName());
+				}
+			}
+		}
+
+		this.order = FrameSource.frames(images);
+
+		for (int i = 0; i < this.order.size(); i++) {
+			this.index.put(this.order.get(i), i);
+		}
+
+		for (String name : images) {
+			if (this.index.containsKey(name)) {
+				stored.add(name);
+			}
+		}
+
+		if (stored.equals(this.order)) {
+			this.stream = new ZipInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+		}
+		else {
+			this.randomAccess = new ZipFile(file.toFile());
+		}
+	}
+
+	private final Path file;
+	private final List<String> order;
+	// the position of each frame in the order
+	private final Map<String, Integer> index = new HashMap<>();
+	private @Nullable ZipInputStream stream;
+	private @Nullable ZipFile randomAccess;
+	private int position;
+
+	@Override
+	public long size() {
+		return this.order.size();
+	}
+
+	@Override
+	public @Nullable SourceFrame next() throws IOException {
+		if (this.position == this.order.size()) {
+			return null;
+		}
+
+		final int wanted = this.position++;
+		final String name = this.order.get(wanted);
+
+		while (this.stream != null) {
+			ZipEntry entry = this.stream.getNextEntry();
+			Integer found = entry == null ? null : this.index.get(entry.getName());
+
+			if (entry == null || found != null && found > wanted) {
+				// the stream is not in frame order after all
+				this.stream.close();
+				this.stream = null;
+				this.randomAccess = new ZipFile(this.file.toFile());
+			}
+			else if (found != null && found == wanted) {
+				return SourceFrame.image(name, this.stream.readAllBytes());
+			}
+			// anything else is not a frame, or a frame skipped over
+		}
+
+		ZipEntry entry = this.randomAccess.getEntry(name);
+
+		try (InputStream in = this.randomAccess.getInputStream(entry)) {
+			return SourceFrame.image(name, in.readAllBytes());
+		}
+	}
+
+	@Override
+	public int skip(int frames) {
+		// the stream passes over the entries of skipped frames when reading the next one
+		int skipped = Math.min(frames, this.order.size() - this.position);
+		this.position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.stream != null) {
+			this.stream.close();
+		}
+
+		if (this.randomAccess != null) {
+			this.randomAccess.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package valoeghese.badapple;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Frames written by {@link DeltaOutput} decode back to the same channels with {@link DeltaDecoder}, read in order or
+ * after seeking.
+ */
+class DeltaOutputTest {
+	private static final int WIDTH = 50;
+	private static final int HEIGHT = 200;
+	private static final int KEY_INTERVAL = 5;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void roundTrip() throws IOException {
+		int[][][] frames = frames(23, 2);
+		Path file = this.write(frames);
+
+		try (DeltaDecoder decoder = new DeltaDecoder(file)) {
+			assertEquals(frames.length, decoder.size());
+			assertEquals(WIDTH, decoder.getWidth());
+			assertEquals(HEIGHT, decoder.getHeight());
+			assertEquals(2, decoder.getChannels());
+
+			for (int[][] frame : frames) {
+				assertArrayEquals(frame, decoder.next());
+			}
+
+			assertNull(decoder.next());
+		}
+	}
+
+	@Test
+	void seek() throws IOException {
+		int[][][] frames = frames(23, 4);
+		Path file = this.write(frames);
+
+		try (DeltaDecoder decoder = new DeltaDecoder(file)) {
+			// key frames, frames after them, backwards, and forwards within and across key intervals
+			for (int frame : new int[] {10, 0, 13, 11, 12, 20, 22, 5, 4, 23}) {
+				decoder.seek(frame);
+
+				if (frame == frames.length) {
+					assertNull(decoder.next());
+				}
+				else {
+					assertArrayEquals(frames[frame], decoder.next(), "frame " + frame);
+				}
+			}
+		}
+	}
+
+	@Test
+	void noFrames() throws IOException {
+		Path file = this.write(new int[0][][]);
+
+		try (DeltaDecoder decoder = new DeltaDecoder(file)) {
+			assertEquals(0, decoder.size());
+			assertNull(decoder.next());
+		}
+	}
+
+	private Path write(int[][][] frames) throws IOException {
+		Path file = this.directory.resolve("video.bdf");
+
+		DeltaOutput output = new DeltaOutput(file, WIDTH, HEIGHT, KEY_INTERVAL);
+
+		try {
+			for (int[][] frame : frames) {
+				output.writeFrame(frame);
+			}
+		} finally {
+			output.close();
+		}
+
+		return file;
+	}
+
+	/**
+	 * Frames with runs of unchanged samples, small and large changes, every other frame repeating the one two before,
+	 * and the spike's -1.
+	 */
+	private static int[][][] frames(int count, int channels) {
+		Random random = new Random(1234);
+		int[][][] frames = new int[count][channels][WIDTH];
+
+		for (int n = 0; n < count; n++) {
+			for (int ch = 0; ch < channels; ch++) {
+				int[] channel = frames[n][ch];
+
+				for (int x = 0; x < WIDTH; x++) {
+					if (n >= 2 && n % 2 == 1 && random.nextInt(4) != 0) {
+						channel[x] = frames[n - 2][ch][x];
+					}
+					else if (n >= 1 && x % 10 < 6) {
+						channel[x] = frames[n - 1][ch][x];
+					}
+					else {
+						channel[x] = random.nextInt(HEIGHT);
+					}
+				}
+
+				channel[0] = -1;
+			}
+		}
+
+		return frames;
+	}
+}
@@ -0,0 +1,161 @@
+package valoeghese.badapple;
+
+import org.junit.jupiter.api.Test;
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+import valoeghese.badapple.BadAppleOscilliscope.Threshold;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * {@link EdgeDetector} finds exactly the edges the original per-pixel {@code getRGB} detector found, for both built-in
+ * thresholds, every number of edges skipped, and from both ends of each column.
+ */
+class EdgeDetectorTest {
+	// more than any mode uses, so that some columns run out of edges
+	private static final int EDGES = 6;
+
+	private static final int[] IMAGE_TYPES = {
+			BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY
+	};
+
+	// input and output sizes, downscaling and upscaling each way
+	private static final int[][] SIZES = {
+			{48, 36, 48, 36}, {48, 36, 20, 100}, {37, 29, 64, 16}, {90, 64, 31, 64}, {1, 40, 3, 7}
+	};
+
+	@Test
+	void matchesBaseline() {
+		Random random = new Random(1234);
+
+		for (int type : IMAGE_TYPES) {
+			for (int[] size : SIZES) {
+				for (int n = 0; n < 4; n++) {
+					BufferedImage image = image(random, type, size[0], size[1]);
+
+					for (Threshold threshold : Threshold.values()) {
+						for (boolean spike : new boolean[] {false, true}) {
+							check(image, size[2], size[3], threshold, spike);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void check(BufferedImage image, int width, int height, Threshold threshold, boolean spike) {
+		GreyFrame frame = GreyFrame.of(image, threshold);
+		EdgeResult[] all = EdgeDetector.detectAll(frame, width, height, threshold, EDGES, spike);
+
+		for (int skip = 0; skip < EDGES; skip++) {
+			EdgeResult expected = baseline(image, width, height, threshold, skip, spike);
+			EdgeResult single = EdgeDetector.detect(frame, width, height, threshold, skip, spike);
+			String message = "type " + image.getType() + ", " + image.getWidth() + "x" + image.getHeight() + " to " + width + "x" + height
+					+ ", " + threshold + ", skip " + skip + (spike ? ", spike" : "");
+
+			assertArrayEquals(expected.bottom(), all[skip].bottom(), message + ": lower edges");
+			assertArrayEquals(expected.top(), all[skip].top(), message + ": upper edges");
+			assertArrayEquals(expected.bottom(), single.bottom(), message + ": lower edges of one");
+			assertArrayEquals(expected.top(), single.top(), message + ": upper edges of one");
+		}
+	}
+
+	/**
+	 * Runs of colours chosen around each threshold's cutoffs, with pure white and colours one step short of it.
+	 */
+	private static BufferedImage image(Random random, int type, int width, int height) {
+		final int[] greys = {0, 10, 11, 126, 127, 128, 200, 250, 251, 254, 255};
+		BufferedImage image = new BufferedImage(width, height, type);
+
+		for (int x = 0; x < width; x++) {
+			int run = 0;
+			int rgba = 0;
+
+			for (int y = 0; y < height; y++) {
+				if (run-- == 0) {
+					run = random.nextInt(8);
+
+					rgba = switch (random.nextInt(4)) {
+						case 0 -> 0xFFFFFFFF;
+						case 1 -> 0xFF000000 | 0x010101 * greys[random.nextInt(greys.length)];
+						// white in all but one channel, or translucent white
+						case 2 -> random.nextBoolean() ? 0xFFFFFFFF ^ 1 << 8 * random.nextInt(3) : 0xFEFFFFFF;
+						default -> random.nextInt();
+					};
+				}
+
+				image.setRGB(x, y, rgba);
+			}
+		}
+
+		return image;
+	}
+
+	/**
+	 * The original detector, reading every pixel with {@code getRGB} and thresholding it as the original thresholds did.
+	 */
+	private static EdgeResult baseline(BufferedImage in, int width, int height, Threshold threshold, int skip, boolean spike) {
+		int[] channel1 = new int[width];
+		int[] channel2 = new int[width];
+
+		for (int x = 0; x < width; x++) {
+			double xConversionFactor = (double) in.getWidth() / width;
+			double yConversionFactor = (double) height / in.getHeight();
+
+			int eqXIn = (int) (xConversionFactor * x);
+			int passes = skip;
+
+			int y;
+			boolean current = white(threshold, in.getRGB(eqXIn, in.getHeight() - 1), false, true);
+
+			for (y = in.getHeight() - 1; y >= 0; y--) {
+				if (white(threshold, in.getRGB(eqXIn, y), current, false) != current) {
+					current = !current;
+
+					if (passes-- == 0) {
+						break;
+					}
+				}
+			}
+
+			if (passes >= 0) y = in.getHeight() - 1;
+			channel1[x] = (int) (yConversionFactor * y);
+
+			passes = skip;
+			current = white(threshold, in.getRGB(eqXIn, 0), false, true);
+
+			for (y = 0; y < in.getHeight(); y++) {
+				if (white(threshold, in.getRGB(eqXIn, y), current, false) != current) {
+					current = !current;
+
+					if (passes-- == 0) {
+						break;
+					}
+				}
+			}
+
+			if (passes >= 0) y = in.getHeight() - 1;
+			channel2[x] = (int) (yConversionFactor * y);
+		}
+
+		if (spike) {
+			channel1[0] = -1;
+			channel2[0] = -1;
+		}
+
+		return new EdgeResult(channel1, channel2);
+	}
+
+	private static boolean white(Threshold threshold, int rgba, boolean current, boolean first) {
+		if (threshold == Threshold.THRESHOLD_WHITE) {
+			return rgba == -1;
+		}
+
+		int grey = (rgba >> 8) & 0xFF;
+		if (first) return grey > 127;
+		if (current) return grey > 10;
+		return grey > 250;
+	}
+}
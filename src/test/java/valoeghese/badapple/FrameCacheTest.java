@@ -0,0 +1,87 @@
+package valoeghese.badapple;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Frames read back from a {@link FrameCache} have the same levels as frames decoded from the source, even for a threshold
+ * whose levels are not the grey value of a grey pixel.
+ */
+class FrameCacheTest {
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+	private static final int FRAMES = 7;
+
+	// the inverse of the green channel, so a grey pixel's level is not its grey value
+	private static final ThresholdStrategy INVERTED = new ThresholdStrategy() {
+		@Override
+		public String id() {
+			return "inverted";
+		}
+
+		@Override
+		public int level(int rgba) {
+			return 255 - (rgba >> 8 & 0xFF);
+		}
+
+		@Override
+		public Cutoffs cutoffs(GreyFrame frame) {
+			return new Cutoffs(127, 127, 127);
+		}
+	};
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void hitMatchesMiss() throws IOException {
+		Path source = this.directory.resolve("video.raw");
+		byte[] pixels = new byte[FRAMES * WIDTH * HEIGHT];
+		new Random(1234).nextBytes(pixels);
+		Files.write(source, pixels);
+
+		Path cacheDirectory = this.directory.resolve("cache");
+		assertNull(FrameCache.open(cacheDirectory, source, WIDTH, HEIGHT, INVERTED));
+		List<byte[]> missed = new ArrayList<>();
+
+		try (FrameSource frames = FrameSource.open(source, WIDTH, HEIGHT);
+				FrameCache cache = FrameCache.create(cacheDirectory, source, WIDTH, HEIGHT, INVERTED)) {
+			SourceFrame frame;
+
+			while ((frame = frames.next()) != null) {
+				GreyFrame decoded = frame.decode(INVERTED);
+				cache.put(missed.size(), decoded);
+				missed.add(decoded.getLevels());
+			}
+
+			cache.commit(missed.size());
+		}
+
+		assertEquals(FRAMES, missed.size());
+
+		try (FrameSource cached = FrameCache.open(cacheDirectory, source, WIDTH, HEIGHT, INVERTED)) {
+			assertNotNull(cached);
+			assertEquals(FRAMES, cached.size());
+
+			for (int n = 0; n < FRAMES; n++) {
+				SourceFrame frame = cached.next();
+				assertNotNull(frame);
+				assertArrayEquals(missed.get(n), frame.decode(INVERTED).getLevels(), "frame " + n);
+			}
+
+			assertNull(cached.next());
+		}
+	}
+}
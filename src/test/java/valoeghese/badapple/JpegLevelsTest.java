@@ -0,0 +1,89 @@
+package valoeghese.badapple;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Levels extracted from a JPEG's raw samples by {@link JpegLevels} are identical to those of the image {@link ImageIO}
+ * reads, for greyscale and JFIF YCbCr JPEGs, under every threshold.
+ */
+class JpegLevelsTest {
+	// odd sizes leave partial blocks and chroma samples at the right and bottom
+	private static final int[][] SIZES = {{64, 48}, {37, 29}, {1, 9}};
+
+	@Test
+	void greyMatchesImageIO() throws IOException {
+		for (int[] size : SIZES) {
+			check(image(new Random(1234), BufferedImage.TYPE_BYTE_GRAY, size[0], size[1]));
+		}
+	}
+
+	@Test
+	void colourMatchesImageIO() throws IOException {
+		for (int[] size : SIZES) {
+			check(image(new Random(1234), BufferedImage.TYPE_INT_RGB, size[0], size[1]));
+		}
+	}
+
+	private static void check(BufferedImage image) throws IOException {
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", file);
+		byte[] data = file.toByteArray();
+
+		Raster samples = JpegLevels.read(data);
+		assertNotNull(samples, "not read from raw samples");
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(data));
+
+		for (ThresholdStrategy threshold : Strategies.thresholds()) {
+			int width = decoded.getWidth();
+			int height = decoded.getHeight();
+			byte[] expected = GreyFrame.of(decoded, threshold).getLevels();
+			byte[] actual = JpegLevels.extract(samples, threshold, null).getLevels();
+
+			assertArrayEquals(expected, actual, "type " + image.getType() + ", " + width + "x" + height + ", " + threshold.id());
+		}
+	}
+
+	/**
+	 * Smooth gradients, so the colours stay close to the source, with hard-edged blocks and saturated colours.
+	 */
+	private static BufferedImage image(Random random, int type, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, type);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = x * 255 / width;
+				int g = y * 255 / height;
+				int b = (x + y) % 2 == 0 ? 255 - r : g;
+				image.setRGB(x, y, 0xFF000000 | r << 16 | g << 8 | b);
+			}
+		}
+
+		for (int n = 0; n < 6; n++) {
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			int w = 1 + random.nextInt(Math.max(1, width - x));
+			int h = 1 + random.nextInt(Math.max(1, height - y));
+			int rgb = random.nextInt(8);
+			rgb = 0xFF000000 | ((rgb & 1) != 0 ? 0xFF0000 : 0) | ((rgb & 2) != 0 ? 0xFF00 : 0) | ((rgb & 4) != 0 ? 0xFF : 0);
+
+			for (int dy = 0; dy < h && y + dy < height; dy++) {
+				for (int dx = 0; dx < w && x + dx < width; dx++) {
+					image.setRGB(x + dx, y + dy, rgb);
+				}
+			}
+		}
+
+		return image;
+	}
+}
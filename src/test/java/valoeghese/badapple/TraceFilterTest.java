@@ -0,0 +1,89 @@
+package valoeghese.badapple;
+
+import org.junit.jupiter.api.Test;
+import valoeghese.badapple.BadAppleOscilliscope.Mode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Filtering from a later frame, after warming up, must write the same frames as the tail of a run from the start.
+ */
+class TraceFilterTest {
+	private static final int WIDTH = 32;
+	private static final int HEIGHT = 128;
+	private static final int FRAMES = 60;
+
+	@Test
+	void fromMatchesTailOfFullRun() {
+		for (Mode mode : Mode.values()) {
+			for (String smoothing : new String[] {"2", "3", "mean:5", "median:2", "median:4"}) {
+				for (boolean route : new boolean[] {false, true}) {
+					TraceFilter.Options options = TraceFilter.Options.NONE.withSmoothing(smoothing);
+					checkFrom(mode, route ? options.withRoute() : options);
+				}
+			}
+		}
+	}
+
+	private static void checkFrom(ModeStrategy mode, TraceFilter.Options options) {
+		int[][][] frames = frames(mode.channels());
+		List<int[][]> full = filter(mode, options, frames, 1, 1);
+
+		for (int from = 2; from <= FRAMES; from++) {
+			int warmUp = TraceFilter.warmUp(mode, options, from);
+			List<int[][]> tail = filter(mode, options, frames, from - warmUp, from);
+
+			for (int frame = from; frame <= FRAMES; frame++) {
+				assertArrayEquals(full.get(frame - 1), tail.get(frame - from),
+						mode.id() + " " + options + ": frame " + frame + " differs when starting from " + from);
+			}
+		}
+	}
+
+	/**
+	 * Filter the frames from {@code first}, and return the frames written from {@code firstOutput} on.
+	 */
+	private static List<int[][]> filter(ModeStrategy mode, TraceFilter.Options options, int[][][] frames, int first, int firstOutput) {
+		TraceFilter filter = new TraceFilter(mode, WIDTH, options, first, firstOutput);
+		List<int[][]> written = new ArrayList<>();
+
+		for (int frame = first; frame <= FRAMES; frame++) {
+			int[][] channels = filter.apply(frames[frame - 1]);
+
+			if (frame < firstOutput) {
+				assertNull(channels);
+			}
+			else {
+				int[][] copy = new int[channels.length][];
+
+				for (int ch = 0; ch < channels.length; ch++) {
+					copy[ch] = channels[ch].clone();
+				}
+
+				written.add(copy);
+			}
+		}
+
+		return written;
+	}
+
+	private static int[][][] frames(int channels) {
+		Random random = new Random(1234);
+		int[][][] frames = new int[FRAMES][channels][WIDTH];
+
+		for (int[][] frame : frames) {
+			for (int[] channel : frame) {
+				for (int x = 0; x < WIDTH; x++) {
+					channel[x] = random.nextInt(HEIGHT);
+				}
+			}
+		}
+
+		return frames;
+	}
+}
@@ -0,0 +1,207 @@
+package valoeghese.badapple;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import valoeghese.badapple.BadAppleOscilliscope.EdgeResult;
+
+/**
+ * Finds the same edges as {@link EdgeDetector}, but scans many output columns at once using the incubating Vector API.
+ * The sampled input columns are laid out row by row, so a row of levels for a group of adjacent columns can be loaded as
+ * one vector. Each lane keeps its own hysteresis state and count of edges found, and lanes which have found enough edges
+ * are masked off. Columns left over after the last whole vector are scanned one at a time.
+ *
+ * <p>Only loaded when {@code jdk.incubator.vector} is present; see {@link EdgeDetector#useVector}. Kept in its own source
+ * folder, which is the only one compiled with the incubating module.</p>
+ */
+final class VectorEdgeDetector implements EdgeDetector.VectorEngine {
+	VectorEdgeDetector() {
+	}
+
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	// one byte per int lane, widened after loading. Byte vectors are at least 64 bits, so with fewer than 8 int lanes only
+	// the first bytes loaded are widened
+	private static final VectorSpecies<Byte> BYTES = INTS.length() <= ByteVector.SPECIES_64.length() ? ByteVector.SPECIES_64
+			: VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+	// bytes past the end of the sampled rows which the last load can read
+	private static final int PADDING = BYTES.length() - INTS.length();
+
+	// per-thread scratch space for the sampled rows and the scaled position of each row
+	private static final ThreadLocal<byte[]> ROWS = ThreadLocal.withInitial(() -> new byte[0]);
+	private static final ThreadLocal<int[]> ROW_Y = ThreadLocal.withInitial(() -> new int[0]);
+
+	@Override
+	public int lanes() {
+		return INTS.length();
+	}
+
+	@Override
+	public EdgeResult[] detectAll(GreyFrame frame, byte[] rows, int width, int height, ThresholdStrategy.Cutoffs cutoffs, int edges, boolean spike, EdgeResult[] results) {
+		final int inHeight = frame.getHeight();
+		final double yConversionFactor = (double) height / inHeight;
+		// if didn't find enough edges, lock to bottom
+		final int missing = (int) (yConversionFactor * (inHeight - 1));
+
+		int[] rowY = ROW_Y.get();
+
+		if (rowY.length < inHeight) {
+			rowY = new int[inHeight];
+			ROW_Y.set(rowY);
+		}
+
+		for (int y = 0; y < inHeight; y++) {
+			rowY[y] = (int) (yConversionFactor * y);
+		}
+
+		final int vectorWidth = INTS.loopBound(width);
+		final IntVector[] found = new IntVector[edges];
+
+		for (int x = 0; x < vectorWidth; x += INTS.length()) {
+			// Lower edges
+			scan(rows, width, inHeight, x, inHeight - 1, -1, cutoffs, rowY, missing, found);
+
+			for (int n = 0; n < edges; n++) {
+				found[n].intoArray(results[n].bottom(), x);
+			}
+
+			// Upper edges
+			scan(rows, width, inHeight, x, 0, 1, cutoffs, rowY, missing, found);
+
+			for (int n = 0; n < edges; n++) {
+				found[n].intoArray(results[n].top(), x);
+			}
+		}
+
+		for (int x = vectorWidth; x < width; x++) {
+			scanColumn(rows, width, inHeight, x, cutoffs, rowY, missing, edges, results);
+		}
+
+		// if spike, override beginning of frame with spike out put range. This is useful for aligning on the oscilliscope (trigger).
+		if (spike) {
+			for (int n = 0; n < edges; n++) {
+				results[n].bottom()[0] = -1;
+				results[n].top()[0] = -1;
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Scan one vector of columns from the given row in the given direction.
+	 * @param edges receives the scaled position of each edge found for every lane, or {@code missing}.
+	 */
+	private static void scan(byte[] rows, int width, int inHeight, int x, int start, int step, ThresholdStrategy.Cutoffs cutoffs, int[] rowY, int missing, IntVector[] edges) {
+		final IntVector whiteCutoff = IntVector.broadcast(INTS, cutoffs.white());
+		final IntVector blackCutoff = IntVector.broadcast(INTS, cutoffs.black());
+		final IntVector none = IntVector.broadcast(INTS, missing);
+
+		for (int n = 0; n < edges.length; n++) {
+			edges[n] = none;
+		}
+
+		IntVector found = IntVector.zero(INTS);
+		VectorMask<Integer> current = level(rows, start * width + x).compare(VectorOperators.GT, cutoffs.first());
+
+		for (int y = start; y >= 0 && y < inHeight; y += step) {
+			VectorMask<Integer> searching = found.compare(VectorOperators.LT, edges.length);
+
+			if (!searching.anyTrue()) {
+				break;
+			}
+
+			// white lanes stay white above the white cutoff, black lanes turn white above the black cutoff
+			VectorMask<Integer> white = level(rows, y * width + x).compare(VectorOperators.GT, blackCutoff.blend(whiteCutoff, current));
+			VectorMask<Integer> flipped = white.eq(current).not().and(searching);
+
+			if (flipped.anyTrue()) {
+				IntVector position = IntVector.broadcast(INTS, rowY[y]);
+
+				for (int n = 0; n < edges.length; n++) {
+					edges[n] = edges[n].blend(position, flipped.and(found.compare(VectorOperators.EQ, n)));
+				}
+
+				found = found.add(1, flipped);
+				current = white;
+			}
+		}
+	}
+
+	private static IntVector level(byte[] rows, int offset) {
+		return ((IntVector) ByteVector.fromArray(BYTES, rows, offset).convertShape(VectorOperators.B2I, INTS, 0)).and(0xFF);
+	}
+
+	/**
+	 * Scan a single column of the sampled rows, as {@link EdgeDetector} does.
+	 */
+	private static void scanColumn(byte[] rows, int width, int inHeight, int x, ThresholdStrategy.Cutoffs cutoffs, int[] rowY, int missing, int edges, EdgeResult[] results) {
+		// Lower edges
+		int found = 0;
+		boolean current = (rows[(inHeight - 1) * width + x] & 0xFF) > cutoffs.first();
+
+		for (int y = inHeight - 1; y >= 0 && found < edges; y--) {
+			if (((rows[y * width + x] & 0xFF) > (current ? cutoffs.white() : cutoffs.black())) != current) {
+				current = !current;
+				results[found++].bottom()[x] = rowY[y];
+			}
+		}
+
+		for (; found < edges; found++) {
+			results[found].bottom()[x] = missing;
+		}
+
+		// Upper edges
+		found = 0;
+		current = (rows[x] & 0xFF) > cutoffs.first();
+
+		for (int y = 0; y < inHeight && found < edges; y++) {
+			if (((rows[y * width + x] & 0xFF) > (current ? cutoffs.white() : cutoffs.black())) != current) {
+				current = !current;
+				results[found++].top()[x] = rowY[y];
+			}
+		}
+
+		for (; found < edges; found++) {
+			results[found].top()[x] = missing;
+		}
+	}
+
+	/**
+	 * Copy the input columns sampled by each output column into a row-major buffer.
+	 * Row y occupies indices {@code [y * width, (y + 1) * width)}.
+	 */
+	@Override
+	public byte[] sample(GreyFrame frame, int width) {
+		final int inWidth = frame.getWidth();
+		final int inHeight = frame.getHeight();
+		final byte[] levels = frame.getLevels();
+
+		byte[] rows = ROWS.get();
+
+		if (rows.length < width * inHeight + PADDING) {
+			rows = new byte[width * inHeight + PADDING];
+			ROWS.set(rows);
+		}
+
+		if (inWidth == width) {
+			System.arraycopy(levels, 0, rows, 0, width * inHeight);
+			return rows;
+		}
+
+		final int[] sourceX = EdgeDetector.sourceColumns(inWidth, width);
+
+		for (int y = 0; y < inHeight; y++) {
+			final int row = y * inWidth;
+			final int out = y * width;
+
+			for (int x = 0; x < width; x++) {
+				rows[out + x] = levels[row + sourceX[x]];
+			}
+		}
+
+		return rows;
+	}
+}